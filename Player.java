@@ -3,39 +3,168 @@ package main;
 import java.util.*;
 import java.io.*;
 import java.math.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
 
 class Player {
 	
     public static void main(String args[]) {
     	
+    	// OPTIONS FOR ALL MODES: '--search [ms]' ENABLES THE ROLLOUT SEARCH WITH AN OPTIONAL BUDGET PER ROUND
+    	List<String> modeArgs = new ArrayList<String>(args.length);
+    	for (int i = 0; i < args.length; i++) {
+    		if (args[i].equals("--search")) {
+    			RolloutSearch.enabledByDefault = true;
+    			if (i+1 < args.length && !args[i+1].startsWith("--")) {
+    				int budget = parseMillis(args[++i]);
+    				if (budget <= 0) {
+    					System.err.println("--search: invalid budget '" + args[i] + "' (milliseconds > 0)");
+    					return;
+    				}
+    				RolloutSearch.defaultBudgetMillis = budget;
+    			}
+    		} else {
+    			modeArgs.add(args[i]);
+    		}
+    	}
+    	args = modeArgs.toArray(new String[modeArgs.size()]);
+    	
+    	// OPTIONAL MODES FOR LOCAL TESTING: RECORD THE INPUT OF THIS GAME OR REPLAY RECORDED GAMES
+    	FrameRecorder recorder = null;
+    	if (args.length >= 2 && args[0].equals("--record")) {
+    		recorder = FrameRecorder.open(args[1]);
+    	} else if (args.length >= 2 && args[0].equals("--replay")) {
+    		Replay.run(Arrays.copyOfRange(args, 1, args.length));
+    		return;
+    	} else if (args.length >= 1 && args[0].equals("--bench-routing")) {
+    		RoutingTable.benchmark();
+    		return;
+    	} else if (args.length >= 1 && args[0].equals("--bench-simulation")) {
+    		Simulation.benchmark();
+    		return;
+    	} else if (args.length >= 2 && args[0].equals("--serve")) {
+    		Server.run(args[1]);
+    		return;
+    	} else if (args.length >= 1 && args[0].equals("--referee")) {
+    		Referee.run(Arrays.copyOfRange(args, 1, args.length));
+    		return;
+    	}
+    	
         // LOAD GAME STATE AT THE START OF THE GAME
-        GameState.load();
+    	Game game = new Game(System.in, System.out);
+    	game.state.recorder = recorder;
+        game.load();
 
         // MAKE MOVES FOR EACH ROUND
         while (true) {
-        	
-            // DETERMINE NEXT COMMANDS FOR CURRENT ROUND
-            AIManager.makeDecision();
-            
-            // EXECUTE COMMANDS AND END CURRENT ROUND
-            CommandManager.executeCommands();
-
-            // UPDATE GAME STATE FOR NEXT ROUND
-            GameState.update();
-            
+        	game.playRound();
+        	game.nextRound();
         }
     }
+    
+    /**
+     * @return The milliseconds given by the text or -1 if it is not a number.
+     */
+    static int parseMillis(String text) {
+    	try {
+    		return Integer.parseInt(text);
+    	} catch (NumberFormatException e) {
+    		return -1;
+    	}
+    }
+
+}
 
+/**
+ * The context of a single game: the game state and the managers making the decisions for it.
+ * Several games can be played side by side as nothing is shared between them, except the static configuration.
+ */
+class Game {
+	
+	final GameState state;
+	final RolloutSearch search;
+	final CommandManager commands;
+	final AIManager ai;
+	private final GameInput in;
+	
+	public Game(InputStream in, OutputStream out) {
+		this(new InputReader(in), out);
+	}
+	
+	/**
+	 * @param in The input of the game.
+	 * @param out The output for the commands or null if the commands are only read from the CommandWriter.
+	 */
+	public Game(GameInput in, OutputStream out) {
+		this.in = in;
+		this.state = new GameState();
+		this.search = new RolloutSearch(state);
+		this.commands = new CommandManager(state, search, out);
+		this.ai = new AIManager(state, commands);
+	}
+	
+	/**
+	 * Loads the game state at the start of the game.
+	 */
+	public void load() {
+		state.load(in);
+		commands.startGame();
+	}
+	
+	/**
+	 * Decides on and sends the commands of the current round.
+	 */
+	public void playRound() {
+		
+		// DETERMINE NEXT COMMANDS FOR CURRENT ROUND
+		search.startRound();
+		ai.makeDecision();
+		
+		// EXECUTE COMMANDS AND END CURRENT ROUND
+		commands.executeCommands();
+	}
+	
+	/**
+	 * Updates the game state for the next round.
+	 */
+	public void nextRound() {
+		state.update();
+	}
+	
+	/**
+	 * @return Returns true if the input contains another round.
+	 */
+	public boolean hasNextRound() {
+		return state.hasNextRound();
+	}
+	
 }
 
 class AIManager {
+	
+	private final GameState game;
+	private final CommandManager commands;
+	private final Ranking ranking = new Ranking(); // reused for each ranking of cells
+	
+	public AIManager(GameState game, CommandManager commands) {
+		this.game = game;
+		this.commands = commands;
+	}
 
 	/**
-	 * Determines the actions for the current round and relays those to the CommandManager.
+	 * Determines the actions for the current round and relays those to the commands.
 	 */
-    public static void makeDecision() {
+    public void makeDecision() {
 
-        if (GameState.round == 0) { // FIRST ROUND
+        if (game.round == 0) { // FIRST ROUND
             makeActionsForFirstRound();
         } else { // ALL OF THE OTHER ROUNDS
         	makeActions();
@@ -48,118 +177,96 @@ class AIManager {
      * Might upgrade starting cell and currently only sends units to neutral cells with production and which can be conquered.
      * Neutral cells are scored based on their starting productivity and defending units inside. The more production and the less units, the better.
      */
-	private static void makeActionsForFirstRound() {
+	private void makeActionsForFirstRound() {
 		
     	// CLOSEST HALF OF ALL NEUTRAL CELLS TO THE STARTING CELL PLUS NEUTRAL CELL(S) IN THE MIDDLE
-    	ArrayList<Cell> neutralNeighbors = GameState.neutralCells;
-    	neutralNeighbors.sort(new Comparator<Cell>() {
-			@Override
-			public int compare(Cell c1, Cell c2) {
-				// sorts by best production value based on defending stationary units of the cell
-				int prod1 = c1.production;
-				int prod2 = c2.production;
-				
-				int units1 = c1.units;
-				int units2 = c2.units;
-
-				int distance1 = GameState.getDistanceBetweenCells(GameState.ownStartingCell, c1);
-				int distance2 = GameState.getDistanceBetweenCells(GameState.ownStartingCell, c2);
-
-				double score1 = ((double) (prod1*6)-distance1-units1);
-				double score2 = ((double) (prod2*6)-distance2-units2);
-
-//				double score1 = ((double) (prod1*(1/distance1)-units1));
-//				double score2 = ((double) (prod2*(1/distance2)-units2));
-
-				if (score1 < score2) {
-					return 1;
-				} else if (score1 > score2) {
-					return -1;
-				} else {
-					return 0;
-				}
-				
-			}
-		});
+    	// sorts by best production value based on defending stationary units of the cell
+    	ranking.clear();
+    	for (Cell cell : game.neutralCells) {
+    		int distance = game.getDistanceBetweenCells(game.ownStartingCell, cell);
+    		ranking.add(cell.id, cell.production()*6 - distance - cell.units());
+    	}
+    	ranking.sortDescending();
     	
     	// REMAINING UNITS LEFT TO USE IN STARTING CELL
-    	int availableUnits = GameState.ownStartingCell.units;
+    	int availableUnits = game.ownStartingCell.units();
 
     	// GET DISTANCE TO ENEMY STARTING CELL
-    	int distanceToEnemy = GameState.getDistanceBetweenCells(GameState.ownStartingCell, GameState.enemyStartingCell);
+    	int distanceToEnemy = game.getDistanceBetweenCells(game.ownStartingCell, game.enemyStartingCell);
     	
     	// DETERMINE IF UPGRADING IS MORE PROFITABLE BECAUSE OF A LOT OF NEUTRAL UNITS
-    	int remainingUnitsAgainstNeutralCells = availableUnits - (GameState.neutralTotalUnits/2);
+    	int remainingUnitsAgainstNeutralCells = availableUnits - (game.neutralTotalUnits/2);
     	boolean alreadyUpgraded = false;
-    	if (GameState.neutralTotalProduction > 1 && remainingUnitsAgainstNeutralCells < 10) {
+    	if (game.neutralTotalProduction > 1 && remainingUnitsAgainstNeutralCells < 10) {
     		// A LOT OF NEUTRAL UNITS: DONT CONQUER THOSE WITH MANY NEUTRAL UNITS; UPGRADE PROD OR ATTACK ENEMY INSTEAD (maybe send units close to the enemy to be ready to attack, and see what he does (if he burns his units on neutral units, then attack, otherwise upgrade)
     		if (availableUnits >= 10 && distanceToEnemy > 13) { // no early bomb threat; enough rounds to yield profit in units
-    			CommandManager.increaseProductivity(GameState.ownStartingCell.id);
+    			commands.increaseProductivity(game.ownStartingCell.id);
     			availableUnits -= 10;
     			alreadyUpgraded = true;
     		}
     	}
     	
-    	for (Cell neutralCell : neutralNeighbors) {
+    	for (int rank = 0; rank < ranking.size(); rank++) {
+    		Cell neutralCell = game.getCellByID(ranking.get(rank));
     		
     		if (availableUnits == 0) {
     			break; // no units available anymore
     		}
     		
-    		int neutralUnits = neutralCell.units;
+    		int neutralUnits = neutralCell.units();
     		
     		if (availableUnits <= neutralUnits) {
     			continue; // not enough units to conquer this cell
     		}
     		
-    		if (neutralCell.production == 0) { 
+    		if (neutralCell.production() == 0) { 
     			continue; // ignore neutral cell with no production
     		}
     		
     		// send enough units to take over the cell to start producing more units
-    		int distanceToOwnStartingCell = GameState.getDistanceBetweenCells(neutralCell, GameState.ownStartingCell);
-    		int distanceToEnemyStartingCell = GameState.getDistanceBetweenCells(neutralCell, GameState.enemyStartingCell);
+    		int distanceToOwnStartingCell = game.getDistanceBetweenCells(neutralCell, game.ownStartingCell);
+    		int distanceToEnemyStartingCell = game.getDistanceBetweenCells(neutralCell, game.enemyStartingCell);
     		if (distanceToOwnStartingCell == distanceToEnemyStartingCell) {
-        		CommandManager.neutralAttack(GameState.ownStartingCell.id, neutralCell.id, 1);
-        		CommandManager.neutralAttack(GameState.ownStartingCell.id, neutralCell.id, 1, 1);
+        		commands.neutralAttack(game.ownStartingCell.id, neutralCell.id, 1);
+        		commands.neutralAttack(game.ownStartingCell.id, neutralCell.id, 1, 1);
         		availableUnits -= 2;
     		} else if (distanceToOwnStartingCell < distanceToEnemyStartingCell) {
-        		CommandManager.neutralAttack(GameState.ownStartingCell.id, neutralCell.id, neutralUnits+1);
+        		commands.neutralAttack(game.ownStartingCell.id, neutralCell.id, neutralUnits+1);
         		availableUnits -= neutralUnits+1;
     		}	
 		}
     	
     	// UPGRADE PRODUCTIVITY IF ENOUGH UNITS ARE STILL AVAILABLE AND IT IS SAVE TO DO SO
-    	if (!alreadyUpgraded && GameState.neutralCells.size() > 10 && availableUnits >= 10 && distanceToEnemy > 13) { // no early bomb threat; enough rounds to yield profit in units
-			CommandManager.increaseProductivity(GameState.ownStartingCell.id);
+    	if (!alreadyUpgraded && game.neutralCells.size() > 10 && availableUnits >= 10 && distanceToEnemy > 13) { // no early bomb threat; enough rounds to yield profit in units
+			commands.increaseProductivity(game.ownStartingCell.id);
 			availableUnits -= 10;
 		}
     	
     	// SEND BOMB IF ENEMY STARTING CELL HAS PRODUCTIVITY
-    	if (GameState.enemyStartingCell.production == 3) {
-    		CommandManager.sendBomb(GameState.ownStartingCell.id, GameState.enemyStartingCell.id);
+    	if (game.enemyStartingCell.production() == 3) {
+    		commands.sendBomb(game.ownStartingCell.id, game.enemyStartingCell.id);
     	}
     	
     	// TODO idea: FIGURE OUT MOST EFFICIENT START THAT YIELDS MORE UNITS AFTER THE FIRST 15 ROUNDS? MIGHT BE DANGEROUS IF IT THEN DOES NOT SEND UNITS AT ALL because staying at the starting amount yields the best result :S
     }
 	
-    private static void makeActions() {
+    private void makeActions() {
     	
     	// SEND BOMB TO ENEMY STARTING CELL IF BOMB WAS NOT SEND YET AND ENEMY UPGRADED EARLY PRODUCTION
-    	if (GameState.ownBombsAvailable == 2) {
-    		if (GameState.enemyStartingCell.production == 3 && GameState.enemyStartingCell.owner == -1) {
-        		CommandManager.sendBomb(GameState.enemyStartingCell.getClosestCellWithOwner(1).id, GameState.enemyStartingCell.id);
+    	if (game.ownBombsAvailable == 2) {
+    		if (game.enemyStartingCell.production() == 3 && game.enemyStartingCell.owner() == -1) {
+        		commands.sendBomb(game.enemyStartingCell.getClosestCellWithOwner(1).id, game.enemyStartingCell.id);
     		} else {
         		int worthwhileProduction = 3;
-        		if (GameState.round > 30 || GameState.ownTotalUnits+50 < GameState.enemyTotalUnits) {
+        		if (game.round > 30 || game.ownTotalUnits+50 < game.enemyTotalUnits) {
         		    worthwhileProduction = 2;
         		}
-        		if (GameState.round > 40) {
+        		if (game.round > 40) {
         			worthwhileProduction = 1;
         		}
-    			for (Cell cell : GameState.enemyCells) {
-    				if (cell.production == worthwhileProduction) {
-    					CommandManager.sendBomb(cell.getClosestCellWithOwner(1).id, cell.id);
+    			for (Cell cell : game.enemyCells) {
+    				if (cell.production() == worthwhileProduction) {
+    					commands.sendBomb(cell.getClosestCellWithOwner(1).id, cell.id);
     					break;
     				}
     			}
@@ -167,12 +274,12 @@ class AIManager {
     	}
     	
     	// MAKE SURE NEUTRAL CELLS ARE BEING CONQUERED
-    	for (Cell cell : GameState.neutralCells) {
-    		if (cell.incomingTotalFriendlyUnits > 0 && cell.incomingTotalEnemyUnits > 0 && !cell.isAboutToBeConquered(cell.getDistanceToClosestCellWithOwner(1))) {
+    	for (Cell cell : game.neutralCells) {
+    		if (cell.incomingTotalFriendlyUnits() > 0 && cell.incomingTotalEnemyUnits() > 0 && !cell.isAboutToBeConquered(cell.getDistanceToClosestCellWithOwner(1))) {
     			Cell friendlyCell = cell.getClosestCellWithOwner(1);
     			if (friendlyCell != null) {
-        			CommandManager.neutralAttack(friendlyCell.id, cell.id, 1);
-        			CommandManager.log("Additonal neutral attack: " + cell.id);
+        			commands.neutralAttack(friendlyCell.id, cell.id, 1);
+        			CommandManager.log("Additonal neutral attack: %d", cell.id);
     			}
     		}
     	}
@@ -180,90 +287,66 @@ class AIManager {
     	
     	
     	// DETERMINE STANDARD ATTACK FOR ALL FRIENDLY CELLS
-    	ArrayList<Cell> enemyCells = new ArrayList<Cell>(GameState.getEnemyCells());
-    	if (enemyCells.size() > 0) {
+    	if (game.getEnemyCells().size() > 0) {
     		
     		// Sort by closest to friendly cell
-    		enemyCells.sort(new Comparator<Cell>() {
-				@Override
-				public int compare(Cell c1, Cell c2) {
-					int prod1 = c1.production;
-					int prod2 = c2.production;
-					
-					int units1 = c1.units;
-					int units2 = c2.units;
-
-					int distance1 = c1.getDistanceToClosestCellWithOwner(1);
-					int distance2 = c2.getDistanceToClosestCellWithOwner(1);
-
-					double score1 = ((double) (prod1*6)-distance1);
-					double score2 = ((double) (prod2*6)-distance2);
-
-//					double score1 = ((double) (prod1*(1/distance1)));
-//					double score2 = ((double) (prod2*(1/distance2)));
-					
-					if (score1 < score2) {
-						return 1;
-					} else if (score1 > score2) {
-						return -1;
-					} else {
-						return 0;
-					}
-//					return c1.getDistanceToClosestCellWithOwner(1) - c2.getDistanceToClosestCellWithOwner(1);
-				}
-			});
+    		ranking.clear();
+    		for (Cell cell : game.getEnemyCells()) {
+    			ranking.add(cell.id, cell.production()*6 - cell.getDistanceToClosestCellWithOwner(1));
+    		}
+    		ranking.sortDescending();
     		
     		
     		// select the closest enemy cell
-    		Cell targetedEnemyCell = enemyCells.get(0);
+    		Cell targetedEnemyCell = game.getCellByID(ranking.get(0));
     		
-    		CommandManager.log("Attack: " + targetedEnemyCell.id);
+    		CommandManager.log("Attack: %d", targetedEnemyCell.id);
     		
     		// select the friendly cell closest to the targeted enemy cell
     		Cell closestFriendlyCellToTargetedEnemyCell = targetedEnemyCell.getClosestCellWithOwner(1);
     		
     		if (closestFriendlyCellToTargetedEnemyCell != null) {
     			// determine the distance
-        		int distanceToEachOther = GameState.getDistanceBetweenCells(closestFriendlyCellToTargetedEnemyCell, targetedEnemyCell);
+        		int distanceToEachOther = game.getDistanceBetweenCells(closestFriendlyCellToTargetedEnemyCell, targetedEnemyCell);
         		
         		// attack with bomb
         		int worthwhileProduction = 3;
-        		if (GameState.round > 20 || GameState.ownTotalUnits+20 < GameState.enemyTotalUnits) {
+        		if (game.round > 20 || game.ownTotalUnits+20 < game.enemyTotalUnits) {
         		    worthwhileProduction = 2;
         		}
         		
-        		if (GameState.round >= 4 && GameState.ownBombsAvailable > 0 && !targetedEnemyCell.isAboutToBeConquered(distanceToEachOther) && targetedEnemyCell.production == worthwhileProduction  && !targetedEnemyCell.isBombGoingToOverlapWithOtherBomb(closestFriendlyCellToTargetedEnemyCell)) {
-        			CommandManager.sendBomb(closestFriendlyCellToTargetedEnemyCell.id, targetedEnemyCell.id);
-        		} else if (GameState.round >= 10 && GameState.ownBombsAvailable > 0) {
-        			for (Cell cell : GameState.enemyCells) {
-        				if (cell.production == 3) {
+        		if (game.round >= 4 && game.ownBombsAvailable > 0 && !targetedEnemyCell.isAboutToBeConquered(distanceToEachOther) && targetedEnemyCell.production() == worthwhileProduction  && !targetedEnemyCell.isBombGoingToOverlapWithOtherBomb(closestFriendlyCellToTargetedEnemyCell)) {
+        			commands.sendBomb(closestFriendlyCellToTargetedEnemyCell.id, targetedEnemyCell.id);
+        		} else if (game.round >= 10 && game.ownBombsAvailable > 0) {
+        			for (Cell cell : game.enemyCells) {
+        				if (cell.production() == 3) {
         					Cell friendlyCell = cell.getClosestCellWithOwner(1);
-        					if (friendlyCell != null && !cell.isAboutToBeConquered(GameState.getDistanceBetweenCells(cell, friendlyCell)) && !cell.isBombGoingToOverlapWithOtherBomb(friendlyCell)) {
-        						CommandManager.sendBomb(friendlyCell.id, cell.id);
-        						CommandManager.specialAttack(friendlyCell.id, cell.id, 1, 1);
+        					if (friendlyCell != null && !cell.isAboutToBeConquered(game.getDistanceBetweenCells(cell, friendlyCell)) && !cell.isBombGoingToOverlapWithOtherBomb(friendlyCell)) {
+        						commands.sendBomb(friendlyCell.id, cell.id);
+        						commands.specialAttack(friendlyCell.id, cell.id, 1, 1);
         						break;
         					}
         				}
         			}
         		}
         		
-        		for (Cell cell : GameState.getFriendlyCells()) {
+        		for (Cell cell : game.getFriendlyCells()) {
         			
-        			if (cell.units == 0) {
+        			if (cell.units() == 0) {
         				continue; // no units available
         			}
         			
         			// determine cell to send units to
-    			    int to = GameState.routingTable[cell.id][targetedEnemyCell.id];
+    			    int to = game.frontRouting.getNextHop(cell.id, targetedEnemyCell.id);
     			    if (to == -1) { // if no intermediate path is available, ...
     			        to = targetedEnemyCell.id; // ... take direct path
     			    }
     			    
     			    // check if bomb impact is expected at the cell
-    		        if (!GameState.getCellByID(to).isTroopGoingToArriveOnBombImpact(cell)) {
+    		        if (!game.getCellByID(to).isTroopGoingToArriveOnBombImpact(cell)) {
     		        	
     		        	// send units
-        			    CommandManager.standardAttack(cell.id, to, cell.units);
+        			    commands.standardAttack(cell.id, to, cell.units());
     			    }
         		}
     		}
@@ -271,28 +354,29 @@ class AIManager {
     	
     	
     	// STANDARD BUFFER
-		for (Cell cell : GameState.getFriendlyCells()) {
+		for (Cell cell : game.getFriendlyCells()) {
 			Cell enemyCell = cell.getClosestCellWithOwner(-1);
 			if (enemyCell != null) {
-				int distance = GameState.getDistanceBetweenCells(cell, enemyCell);
-				int unitsNeeded = enemyCell.units+enemyCell.production-distance*(cell.productionDisabled > 0 ? 0 : cell.production)-cell.incomingFriendlyUnits[1]+enemyCell.incomingEnemyUnits[1];
+				int distance = game.getDistanceBetweenCells(cell, enemyCell);
+				int unitsNeeded = enemyCell.units()+enemyCell.production()-distance*(cell.productionDisabled() > 0 ? 0 : cell.production())-cell.incomingFriendlyUnits(1)+enemyCell.incomingEnemyUnits(1);
 				if (unitsNeeded > 0) {
-					CommandManager.saveUnitsForDefense(cell.id, unitsNeeded);
+					commands.saveUnitsForDefense(cell.id, unitsNeeded);
 				}
 			}
 		}
     	
     	
     	// DEFEND CELLS
-    	for (Cell cell : GameState.getFriendlyCells()) {
+    	for (Cell cell : game.getFriendlyCells()) {
     		switch (cell.threatStatus) {
     		case BEING_CONQUERED:
-    			if (cell.production >= 1 && GameState.ownTotalProduction > GameState.enemyTotalProduction) {
+    			if (cell.production() >= 1 && game.ownTotalProduction > game.enemyTotalProduction) {
         			int requiredUnits = cell.getUnitsRequiredToSaveThisRoundToDefendSuccessfully();
-        			for (Neighbor neighbor : cell.neighbors) {
-        				if (neighbor.getCell().owner == 1 && neighbor.getCell().threatStatus == ThreatStatus.SAFE) {
-        					CommandManager.sendUnitsForDefense(neighbor.getCell().id, cell.id, requiredUnits);
-        					requiredUnits -= neighbor.getCell().units;
+        			for (int neighborID : cell.neighbors) {
+        				Cell neighbor = game.getCellByID(neighborID);
+        				if (neighbor.owner() == 1 && neighbor.threatStatus == ThreatStatus.SAFE) {
+        					commands.sendUnitsForDefense(neighbor.id, cell.id, requiredUnits);
+        					requiredUnits -= neighbor.units();
         				}
         				if (requiredUnits <= 0) {
         					break;
@@ -302,12 +386,13 @@ class AIManager {
     			// fall-through
     			
     		case DEFEND_BY_INCOMING_UNITS:
-    			CommandManager.saveUnitsForDefense(cell.id, 100);
+    			commands.saveUnitsForDefense(cell.id, 100);
     			break;
     			
     		case DEFEND_BY_SAVING_UNITS:
-    			CommandManager.log("Save Units: " + cell.id + " " + cell.getUnitsRequiredToSaveThisRoundToDefendSuccessfully());
-    			CommandManager.saveUnitsForDefense(cell.id, cell.getUnitsRequiredToSaveThisRoundToDefendSuccessfully()); 
+    			int unitsToSave = cell.getUnitsRequiredToSaveThisRoundToDefendSuccessfully();
+    			CommandManager.log("Save Units: %d %d", cell.id, unitsToSave);
+    			commands.saveUnitsForDefense(cell.id, unitsToSave);
     			break;
 
     		case SAFE:
@@ -321,83 +406,50 @@ class AIManager {
     	
     	
     	// FIND ADDITIONAL NEUTRAL CELLS TO CONQUER
-    	if ((GameState.round < 10 && GameState.ownTotalProduction < GameState.enemyTotalProduction) || GameState.ownTotalProduction > GameState.enemyTotalProduction+2 || GameState.ownTotalUnits > GameState.enemyTotalUnits+50 || GameState.round > 40) {
-    		ArrayList<Cell> neutralCells = new ArrayList<Cell>(GameState.getNeutralCells());
-        	// sort by cells furthest away from enemy cells
-    		neutralCells.sort(new Comparator<Cell>() {
-				@Override
-				public int compare(Cell c1, Cell c2) {
-					// sorts by best production value based on defending stationary units of the cell
-					int prod1 = c1.production;
-					int prod2 = c2.production;
-					
-					int units1 = c1.units;
-					int units2 = c2.units;
-
-					int distance1 = c1.getDistanceToClosestCellWithOwner(1);
-					int distance2 = c2.getDistanceToClosestCellWithOwner(1);
-
-//					double score1 = ((double) (prod1*6)-distance1-units1);
-//					double score2 = ((double) (prod2*6)-distance2-units2);
-
-					double score1 = ((double) (prod1*(1/distance1)-units1));
-					double score2 = ((double) (prod2*(1/distance2)-units2));
-
-					if (score1 < score2) {
-						return 1;
-					} else if (score1 > score2) {
-						return -1;
-					} else {
-						return 0;
-					}
-					
-				}
-			});
+    	if ((game.round < 10 && game.ownTotalProduction < game.enemyTotalProduction) || game.ownTotalProduction > game.enemyTotalProduction+2 || game.ownTotalUnits > game.enemyTotalUnits+50 || game.round > 40) {
+        	// sort by best production value based on defending stationary units of the cell
+    		ranking.clear();
+    		for (Cell cell : game.getNeutralCells()) {
+    			int distance = cell.getDistanceToClosestCellWithOwner(1);
+    			ranking.add(cell.id, cell.production()*(1/distance) - cell.units());
+    		}
+    		ranking.sortDescending();
     		
     		
-    		for (Cell cell : neutralCells) {
+    		for (int rank = 0; rank < ranking.size(); rank++) {
+    			Cell cell = game.getCellByID(ranking.get(rank));
     			int distance = cell.getDistanceToClosestCellWithOwner(1);
-    			if (cell.production > 0 && distance <= 8 && !cell.isAboutToBeConquered(distance) && distance <= cell.getDistanceToClosestCellWithOwner(-1)) {
-    				CommandManager.neutralAttack(cell.getClosestCellWithOwner(1).id, cell.id, Math.min(cell.getClosestCellWithOwner(1).production, cell.units+1));
+    			if (cell.production() > 0 && distance <= 8 && !cell.isAboutToBeConquered(distance) && distance <= cell.getDistanceToClosestCellWithOwner(-1)) {
+    				commands.neutralAttack(cell.getClosestCellWithOwner(1).id, cell.id, Math.min(cell.getClosestCellWithOwner(1).production(), cell.units()+1));
 					break;
     			}
     		}
     	}
     	
     	// UPGRADE
-    	if (GameState.ownTotalProduction > GameState.enemyTotalProduction+2 || GameState.ownTotalUnits > GameState.enemyTotalUnits+50) {
-    		ArrayList<Cell> ownCells = new ArrayList<Cell>(GameState.getFriendlyCells());
+    	if (game.ownTotalProduction > game.enemyTotalProduction+2 || game.ownTotalUnits > game.enemyTotalUnits+50) {
         	// sort by cells furthest away from enemy cells
-    		ownCells.sort(new Comparator<Cell>() {
-				@Override
-				public int compare(Cell cell1, Cell cell2) {
-				    int distance1 = cell1.getDistanceToClosestCellWithOwner(-1);
-				    int distance2 = cell2.getDistanceToClosestCellWithOwner(-1);
-//				    return distance2-distance1;
-				    if (distance1 < distance2) {
-				        return 1;
-				    } else if (distance1 > distance2) {
-				        return -1;
-				    } else {
-				        return 0;
-				    }
-				}
-			});
+    		ranking.clear();
+    		for (Cell cell : game.getFriendlyCells()) {
+    			ranking.add(cell.id, cell.getDistanceToClosestCellWithOwner(-1));
+    		}
+    		ranking.sortDescending();
     		
     		
-    		for (Cell cell : ownCells) {
-    			if (cell.production < 3 && (cell.production >= 1 || cell.units >= 10) && cell.threatStatus == ThreatStatus.SAFE && !cell.isHitByBomb() && !cell.isBombImpactExpectedIn(10+(int)(10f/cell.production))) {
-					CommandManager.increaseProductivity(cell.id);
-					CommandManager.log("Upgrade: " + cell.id);
+    		for (int rank = 0; rank < ranking.size(); rank++) {
+    			Cell cell = game.getCellByID(ranking.get(rank));
+    			if (cell.production() < 3 && (cell.production() >= 1 || cell.units() >= 10) && cell.threatStatus == ThreatStatus.SAFE && !cell.isHitByBomb() && !cell.isBombImpactExpectedIn(10+(int)(10f/cell.production()))) {
+					commands.increaseProductivity(cell.id);
+					CommandManager.log("Upgrade: %d", cell.id);
 					break;
     			}
     		}
     	}
     	
     	// SPECIAL STRAT
-//    	for (Cell cell : GameState.neutralCells) {
+//    	for (Cell cell : game.neutralCells) {
 //    		
-//    		if (cell.production > 0 && cell.units > 0) {
+//    		if (cell.production() > 0 && cell.units() > 0) {
 //    			
 //    			Cell friendlyCell = cell.getClosestCellWithOwner(1);
 //    			Cell enemyCell = cell.getClosestCellWithOwner(-1);
@@ -406,36 +458,36 @@ class AIManager {
 //    				continue;
 //    			}
 //    			
-//    			int distanceToOwnCell = GameState.getDistanceBetweenCells(cell, friendlyCell);
-//    			int distanceToEnemyCell = GameState.getDistanceBetweenCells(cell, enemyCell);
+//    			int distanceToOwnCell = game.getDistanceBetweenCells(cell, friendlyCell);
+//    			int distanceToEnemyCell = game.getDistanceBetweenCells(cell, enemyCell);
 //    			
 //    			if (distanceToOwnCell < distanceToEnemyCell) {
 //    				
 //    				for (int i = 0; i < 20; i++) {
 //    					
-//    					if (GameState.round-i < 0) {
+//    					if (game.round-i < 0) {
 //    						break;
 //    					}
 //    					
-//        				for (Troop troop : GameState.history.troopsLaunched.get(GameState.round-i)) {
-//        					if (troop.to == cell.id && GameState.round+1+distanceToOwnCell == troop.arrival) {
+//        				for (Troop troop : game.history.troopsLaunched.get(game.round-i)) {
+//        					if (troop.to == cell.id && game.round+1+distanceToOwnCell == troop.arrival) {
 //        						if (friendlyCell.commands.get(0).specialAttack != null) {
-//	        						CommandManager.specialAttack(friendlyCell.id, cell.id, 1);
-//	        						CommandManager.specialAttack(friendlyCell.id, cell.id, 1, 1);
+//	        						commands.specialAttack(friendlyCell.id, cell.id, 1);
+//	        						commands.specialAttack(friendlyCell.id, cell.id, 1, 1);
 //        						}
 //        					}
 //        				}
 //    				}
 //    			}
 //				if (friendlyCell.commands.get(0).specialAttack == null) {
-//    				CommandManager.saveUnitsForSpecialAttack(friendlyCell.id, 2);
+//    				commands.saveUnitsForSpecialAttack(friendlyCell.id, 2);
 //    			}
 //    		}
 //    	}
     	
-    	for (Cell cell : GameState.neutralCells) {
+    	for (Cell cell : game.neutralCells) {
     		
-    		if (cell.production > 0 && cell.units > 0 && cell.incomingTotalFriendlyUnits == 0 && cell.incomingTotalEnemyUnits > 0) {
+    		if (cell.production() > 0 && cell.units() > 0 && cell.incomingTotalFriendlyUnits() == 0 && cell.incomingTotalEnemyUnits() > 0) {
 
         		Cell friendlyCell = cell.getClosestCellWithOwner(1);
         		
@@ -443,39 +495,38 @@ class AIManager {
         			continue;
         		}
         		
-        		if (friendlyCell.commands.get(0).specialAttack != null) {
+        		if (commands.buffer.isScheduled(0, friendlyCell.id, CommandBuffer.SPECIAL_ATTACK)) {
         			continue;
         		}
         		
-        		int distanceToOwnCell = GameState.getDistanceBetweenCells(friendlyCell, cell);
+        		int distanceToOwnCell = game.getDistanceBetweenCells(friendlyCell, cell);
         		
-    			for (int i = 0; i < 20; i++) {
-					
-					if (GameState.round-i < 0) {
+        		// INTERCEPT AN ENEMY TROOP ARRIVING ONE ROUND BEFORE OUR UNITS COULD: ONLY THE FIRST TROOP OF EACH LAUNCH ROUND
+        		// IS CONSIDERED AND THE OLDEST ONE THAT CAN BE INTERCEPTED IS CHOSEN
+        		TroopArrivalIndex arrivals = game.arrivals;
+        		int previousLaunch = -1;
+    			for (int troop = arrivals.first(cell.id, game.round+distanceToOwnCell+1, -1); troop != -1; troop = arrivals.next(troop, -1)) {
+    				if (arrivals.launched[troop] == previousLaunch) {
+    					continue;
+    				}
+    				previousLaunch = arrivals.launched[troop];
+					int remainingUnitsAfterFight = arrivals.units[troop]-cell.units();
+					if (remainingUnitsAfterFight > 0 && friendlyCell.units() >= remainingUnitsAfterFight) {
+						commands.specialAttack(friendlyCell.id, cell.id, remainingUnitsAfterFight);
+						//commands.specialAttack(friendlyCell.id, cell.id, 1, 1);
+						CommandManager.log("Intercepting: %d", cell.id);
 						break;
 					}
-					
-    				for (Troop troop : GameState.history.troopsLaunched.get(GameState.round-i)) {
-    					if (troop.owner == -1 && troop.to == cell.id && GameState.round+distanceToOwnCell+1 == troop.arrival) {
-    						int remainingUnitsAfterFight = troop.units-cell.units;
-    						if (remainingUnitsAfterFight > 0 && friendlyCell.units >= remainingUnitsAfterFight) {
-        						CommandManager.specialAttack(friendlyCell.id, cell.id, remainingUnitsAfterFight);
-        						//CommandManager.specialAttack(friendlyCell.id, cell.id, 1, 1);
-        						CommandManager.log("Intercepting: " + cell.id);
-    						}
-    						break;
-    					}
-    				}
-				}
+    			}
     			
     		}
     	}
     	
     	// SEND UNITS AWAY IF CELL IS UNDER ATTACK
-    	for (Cell cell : GameState.friendlyCells) {
+    	for (Cell cell : game.friendlyCells) {
     		if (cell.isBombImpactExpected()) { // bomb is expected
-    			if (cell.isBombImpactExpectedNextRound() && cell.units > 0) { // potential impact is expected next round
-					CommandManager.evacuateUnits(cell.id);
+    			if (cell.isBombImpactExpectedNextRound() && cell.units() > 0) { // potential impact is expected next round
+					commands.evacuateUnits(cell.id);
     			}
     		}
     	}
@@ -487,64 +538,67 @@ class AIManager {
 
 
 /**
- * Contains all relevant information about the current game in progress.
+ * Contains all relevant information about one game in progress.
  * That includes information about all cells, their distances to each other, the current round, (sorted) lists of cells grouped by team, starting cells, starting areas, and much more
+ * Each game has its own instance, which is referenced by its cells and by the managers of the game (see Game).
  */
 class GameState {
 
     // STATIC DATA (CREATED ONCE ON GAME START)
-	private static Scanner scanner = null;
+	private GameInput reader = null;
+	public FrameRecorder recorder = null; // records the input of the game if set
+	private final int[] args = new int[5]; // reused entity arguments: arg1, arg2, arg3, arg4, arg5
 
-	public static Cell[] cells;
-    public static int cellCount;
-    public static boolean isEvenCellAmount;
+	public Cell[] cells;
+	public CellStore store; // the state of all cells
+	public static int horizon = 21; // the minimum amount of rounds tracked for incoming units (extended to the longest link on load)
+    public int cellCount;
+    public boolean isEvenCellAmount;
 
-    public static int[][] distances; // cell distances to each other
-    public static int[][] routingTable;
+    public byte[] distances; // [cellID1*cellCount + cellID2]: cell distances to each other (always fit into a byte)
+    public FrontRouting frontRouting; // shortest paths between all cells avoiding enemy and bombed cells (updated each round)
     
-    public static Cell ownStartingCell;
-    public static Cell enemyStartingCell;
+    public Cell ownStartingCell;
+    public Cell enemyStartingCell;
     
-    public static ArrayList<Cell> ownArea; // the cells around the own starting cell
-    public static ArrayList<Cell> enemyArea; // the cells around the enemy starting cell
-    public static ArrayList<Cell> centerArea; // the cells which are right in the middle of both starting cells
+    public ArrayList<Cell> ownArea; // the cells around the own starting cell
+    public ArrayList<Cell> enemyArea; // the cells around the enemy starting cell
+    public ArrayList<Cell> centerArea; // the cells which are right in the middle of both starting cells
     
     
     // DYNAMIC DATA (UPDATED EACH ROUND)
-    public static int round;
+    public int round;
     
-    public static int ownBombsAvailable;
-    public static int enemyBombsAvailable;
-
-    public static ArrayList<Cell> friendlyCells;
-    public static ArrayList<Cell> enemyCells;
-    public static ArrayList<Cell> neutralCells;
+    public int ownBombsAvailable;
+    public int enemyBombsAvailable;
 
-    public static ArrayList<Cell> friendlyCellsByProduction;
-    public static ArrayList<Cell> enemyCellsByProduction;
-    public static ArrayList<Cell> neutralCellsByScore;
+    public CellSet friendlyCells;
+    public CellSet enemyCells;
+    public CellSet neutralCells;
     
-    public static int ownTotalUnits;
-    public static int enemyTotalUnits;
-    public static int neutralTotalUnits;
+    public int ownTotalUnits;
+    public int enemyTotalUnits;
+    public int neutralTotalUnits;
     
-    public static int ownTotalProduction;
-    public static int enemyTotalProduction;
-    public static int neutralTotalProduction;
+    public int ownTotalProduction;
+    public int enemyTotalProduction;
+    public int neutralTotalProduction;
     
     
     // OTHERS
-    public static History history;
-    private static boolean updateCellLists;
+    public CellPartition partition; // the cells grouped by owner
+    public History history;
+    public TroopArrivalIndex arrivals; // the troops in flight by destination and arrival round
+    public NearestOwnerIndex nearest; // the closest cell of each owner for each cell
+    public BombDanger bombDanger; // the rounds of expected bomb impacts for each cell
+    public BombTargetInference bombTargets; // the cells each enemy bomb might still hit
     
     /**
-     * Loads and sets all information at the start of a new game. 
+     * Loads and sets all information at the start of a new game read from the given input.
+     * Replaces the game currently loaded, if any.
+     * @param in The input of the game.
      */
-    public static void load() {
-        if (scanner != null) {
-            return;
-        }
-
+    public void load(GameInput in) {
         round = 0;
 
         ownBombsAvailable = 2;
@@ -559,40 +613,58 @@ class GameState {
         neutralTotalProduction = 0;
         
         history = new History();
-        updateCellLists = false;
 
-        // INIT SCANNER TO LOAD DATA FROM THE GAME IN PROGRESS
-        scanner = new Scanner(System.in);
+        // INIT READER TO LOAD DATA FROM THE GAME IN PROGRESS
+        reader = in;
 
         // LOAD CELL AND CONNECTION COUNT
-        cellCount = scanner.nextInt(); // the number of cells
+        cellCount = reader.nextInt(); // the number of cells
         isEvenCellAmount = (cellCount % 2 == 0);
         
         // LOAD CELL CONNECTIONS
-        int linkCount = scanner.nextInt(); // the number of links between cells
-        distances = new int[cellCount][cellCount];
+        int linkCount = reader.nextInt(); // the number of links between cells
+        if (recorder != null) {
+        	recorder.startGame(cellCount, linkCount);
+        }
+        distances = new byte[cellCount*cellCount];
         for (int i = 0; i < linkCount; i++) {
-            int cell1 = scanner.nextInt();
-            int cell2 = scanner.nextInt();
-            int distance = scanner.nextInt();
-            distances[cell1][cell2] = distance;
-            distances[cell2][cell1] = distance;
+            int cell1 = reader.nextInt();
+            int cell2 = reader.nextInt();
+            int distance = reader.nextInt();
+            distances[cell1*cellCount + cell2] = (byte) distance;
+            distances[cell2*cellCount + cell1] = (byte) distance;
+            if (recorder != null) {
+            	recorder.link(cell1, cell2, distance);
+            }
         }
         
         // LOAD CELL INFORMATION (IDs, OWNER, UNITS, PRODUCTION)
         cells = new Cell[cellCount];
-        int entityCount = scanner.nextInt(); // the number of cells
+        int maxDistance = 0;
+        for (int i = 0; i < distances.length; i++) {
+        	maxDistance = Math.max(maxDistance, distances[i]);
+        }
+        store = new CellStore(cellCount, Math.max(horizon, maxDistance+1));
+        bombDanger = new BombDanger(this);
+        arrivals = new TroopArrivalIndex(cellCount, store.horizon);
+        bombTargets = new BombTargetInference(this);
+        int entityCount = reader.nextInt(); // the number of cells
+        if (recorder != null) {
+        	recorder.startFrame(entityCount);
+        }
         for (int i = 0; i < entityCount; i++) {
-            int[] args = new int[5]; 
             // 						 0     1     2     3     4
             // entityID, entityType, arg1, arg2, arg3, arg4, arg5
-            int entityID = scanner.nextInt();
-            String entityType = scanner.next();
+            int entityID = reader.nextInt();
+            byte entityType = reader.nextEntityType();
             for (int j = 0; j < 5; j++) {
-                args[j] = scanner.nextInt();
+                args[j] = reader.nextInt();
             }
-            if (entityType.equals("FACTORY")) { // CELL
-                cells[entityID] = new Cell(entityID, args[0], args[1], args[2]);
+            if (recorder != null) {
+            	recorder.entity(entityID, entityType, args);
+            }
+            if (entityType == InputReader.FACTORY) { // CELL
+                cells[entityID] = new Cell(this, entityID, args[0], args[1], args[2]);
                 // Cell: entityID, owner (friendly 1, enemy -1, neutral 0), unit amount, production
                 if (args[0] == 1) { // OWN
             		ownTotalUnits += args[1];
@@ -608,26 +680,33 @@ class GameState {
             // NO TROOPS OR BOMBS WERE SEND ON GAME START YET
         }
         
-        // SETUP CELL LISTS BY TEAM
-        updateCellLists();
+        if (recorder != null) {
+        	recorder.endFrame();
+        }
+        
+        // SETUP INDEX OF THE CLOSEST CELLS BY OWNER
+        nearest = new NearestOwnerIndex(this);
         
-        // SETUP CELL LISTS BY TEAM SORTED BY PRODUCTION
-        updateSortedCellLists();
+        // SETUP CELL SETS BY TEAM (SORTED BY PRODUCTION)
+        partition = new CellPartition(cells);
+        friendlyCells = partition.getCells(1);
+        enemyCells = partition.getCells(-1);
+        neutralCells = partition.getCells(0);
         
         // DETERMINE STARTING CELLS
-        ownStartingCell = GameState.getFriendlyCells().get(0);
-    	enemyStartingCell = GameState.getEnemyCells().get(0);
+        ownStartingCell = getCellByID(getFriendlyCells().first());
+    	enemyStartingCell = getCellByID(getEnemyCells().first());
         
         // DETERMINE (STARTING AND CENTER) AREAS FOR EACH PLAYER
         ownArea = new ArrayList<Cell>();
         enemyArea = new ArrayList<Cell>();
         centerArea = new ArrayList<Cell>();
         
-        int halfCellCount = (GameState.cellCount/2);
+        int halfCellCount = (cellCount/2);
         int counter = 0;
         while (counter < halfCellCount) {
-        	ownArea.add(ownStartingCell.neighbors.get(counter).getCell());
-        	enemyArea.add(enemyStartingCell.neighbors.get(counter).getCell());
+        	ownArea.add(cells[ownStartingCell.neighbors[counter]]);
+        	enemyArea.add(cells[enemyStartingCell.neighbors[counter]]);
         	counter++;
         }
         for (Cell cell : ownArea) {
@@ -636,16 +715,18 @@ class GameState {
         	}
         }
         
-        // CREATE ROUTING TABLE
-        routingTable = createRoutingTable();
+        // CREATE THE PATHS TOWARDS THE FRONT (THE PLAIN SHORTEST PATHS OF THE RoutingTable ARE NOT USED BY THE BOT)
+        frontRouting = new FrontRouting(this);
     }
 
 	/**
      * Updates the game state for the next round by reading in the up-to-date information of the game in progress.
-     * Make sure you call 'CommandManager.executeCommands()' before calling this function first.
+     * Make sure you call 'CommandManager.executeCommands()' of this game before calling this function first.
      */
-    public static void update() {
+    public void update() {
         round++;
+        store.advanceRound();
+        arrivals.startRound(round);
         
         ownTotalUnits = 0;
         enemyTotalUnits = 0;
@@ -657,51 +738,76 @@ class GameState {
         
         //long time = System.currentTimeMillis();
         
-        int updateCount = scanner.nextInt(); // the number of active entities currently in the game
+        // ENTITIES ARE PROCESSED AS SOON AS THEY ARE READ. THE FRAME LISTS ALL FACTORIES FIRST, THEN ALL TROOPS AND THEN ALL BOMBS,
+        // SO THE DERIVED DATA OF EACH SECTION IS DETERMINED WHILE THE REMAINING SECTIONS ARE STILL BEING READ
+        boolean troopsComplete = false; // all troop records (and therefore all incoming units) of this frame are known
+        
+        int updateCount = reader.nextInt(); // the number of active entities currently in the game
+        if (recorder != null) {
+        	recorder.startFrame(updateCount);
+        }
         for (int i = 0; i < updateCount; i++) {
-        	int[] args = new int[5]; 
             // 						 0     1     2     3     4
             // entityID, entityType, arg1, arg2, arg3, arg4, arg5
-            int entityID = scanner.nextInt();
-            String entityType = scanner.next();
+            int entityID = reader.nextInt();
+            byte entityType = reader.nextEntityType();
             for (int j = 0; j < 5; j++) {
-                args[j] = scanner.nextInt();
+                args[j] = reader.nextInt();
+            }
+            if (recorder != null) {
+            	recorder.entity(entityID, entityType, args);
             }
-            if (entityType.equals("FACTORY")) { // CELL
+            if (entityType == InputReader.FACTORY) { // CELL
+            	troopsComplete = false; // unexpected order: determine derived data again once the frame is complete
                 updateCell(entityID, args[0], args[1], args[2], args[3]);
                 // Cell: entityID, owner (friendly 1, enemy -1, neutral 0), unit amount, production, productionDisabledForRoundAmount
-            } else if (entityType.equals("TROOP")) { // UNITS
+            } else if (entityType == InputReader.TROOP) { // UNITS
+            	troopsComplete = false;
                 addTroop(entityID, args[0], args[1], args[2], args[3], args[4]);
                 // Troop: entityID, owner (friendly 1, enemy -1, neutral 0), from cell, to cell, unit amount, remaining rounds till troop arrives
-            } else if (entityType.equals("BOMB")) { // BOMB
+            } else if (entityType == InputReader.BOMB) { // BOMB
+            	if (!troopsComplete) {
+            		onTroopsComplete();
+            		troopsComplete = true;
+            	}
                 addBombLaunch(entityID, args[0], args[1], args[2], args[3]);
                 // Bomb: entityID, owner, from cell, (to cell), (remaining rounds till impact)
             }
         }
         
+        if (recorder != null) {
+        	recorder.endFrame();
+        }
         
-        //CommandManager.log("Update: " + (System.currentTimeMillis() - time));
-        
-        // UPDATE CELL LISTS IF ONE OR MORE CELLS CHANGED OWNERSHIP LAST ROUND
-        if (updateCellLists) {
-        	updateCellLists();
-        	updateSortedCellLists();
-        	updateCellLists = false;
-            //CommandManager.log("Cells: " + (System.currentTimeMillis() - time));
+        // FINISH THE TROOP SECTION IF IT WAS NOT FOLLOWED BY BOMBS
+        if (!troopsComplete) {
+        	onTroopsComplete();
         }
         
-
+        // DROP THE TARGETS ENEMY BOMBS HAVE ALREADY PASSED WITHOUT AN IMPACT
+        bombTargets.update();
+        
+        // RE-PLAN THE PATHS AFFECTED BY CELLS THAT CHANGED OWNERSHIP OR BOMB THREAT
+        frontRouting.update();
+        
+        //CommandManager.log("Update: " + (System.currentTimeMillis() - time));
+    }
+    
+    /**
+     * Called during the update as soon as all cells and all troops of the current frame are known.
+     */
+    private void onTroopsComplete() {
         // DETERMINE THE THREAT LEVEL TO THIS CELL BASED ON ENEMY TROOPS
         for (Cell cell : friendlyCells) {
         	cell.determineThreat();
         	if (cell.threatStatus != ThreatStatus.SAFE) {
-            	CommandManager.log("ThreatStatus: " + cell.id + " " + cell.threatStatus);
+            	CommandManager.log("ThreatStatus: %d %s", cell.id, cell.threatStatus);
         	}
         }
     }
 
     
-    private static void updateCell(int cellID, int owner, int units, int production, int roundsDisabled) {
+    private void updateCell(int cellID, int owner, int units, int production, int roundsDisabled) {
     	// update cell each round
     	cells[cellID].update(owner, units, production, roundsDisabled);
     	
@@ -718,11 +824,10 @@ class GameState {
     	}
     }
 
-    private static void addTroop(int troopID, int owner, int from, int to, int units, int distanceRemaining) {
+    private void addTroop(int troopID, int owner, int from, int to, int units, int distanceRemaining) {
     	// only add new unit troops once when they are launched, not on the later rounds while mid-travel
-    	if (!history.troopIDs.contains(troopID)) { 
-    		history.troopsLaunched.get(round).add(new Troop(troopID, owner, from, to, units, round, round+distanceRemaining)); // TODO double check if round values are correct!
-    		history.troopIDs.add(troopID);
+    	if (history.addTroopID(troopID)) { 
+    		arrivals.addTroop(owner, to, units, round, round+distanceRemaining);
         	// add and map out incoming units for the cell
     		cells[to].addIncomingUnits(owner, units, distanceRemaining);
         }
@@ -735,11 +840,10 @@ class GameState {
     	}
     }
 
-    private static void addBombLaunch(int bombID, int owner, int from, int to, int distance) {
-        if (!history.bombIDs.contains(bombID)) {
+    private void addBombLaunch(int bombID, int owner, int from, int to, int distance) {
+        if (history.addBombID(bombID)) {
         	Bomb bomb = new Bomb(bombID, owner, from, to, round, round+distance);
         	history.bombs.add(bomb);
-        	history.bombIDs.add(bombID);
         	registerNewBombLaunch(bomb);
         	if (owner == 1) {
         		ownBombsAvailable--;
@@ -749,961 +853,4336 @@ class GameState {
         }
     }
     
-	public static void registerNewBombLaunch(Bomb bomb) {
+	public void registerNewBombLaunch(Bomb bomb) {
+		int slot = bombDanger.addBomb(bomb);
         if (bomb.owner == 1) { // PLAYER BOMB
-        	GameState.getCellByID(bomb.to).addIncomingBomb(bomb);
-        } else if (bomb.owner == -1) { // ENEMY BOMB LAUNCH
-        	for (Cell cell : GameState.cells) {
-        		cell.addIncomingBomb(bomb);
+        	bombDanger.addImpact(slot, bomb.to, bomb.impact - round);
+        } else if (bomb.owner == -1) { // ENEMY BOMB LAUNCH: EVERY CELL WORTH A BOMB MIGHT BE THE TARGET
+        	CellSet candidates = bombTargets.addBomb(bomb, slot);
+        	for (Cell cell : candidates) {
+        		bombDanger.addImpact(slot, cell.id, getDistanceBetweenCells(bomb.from, cell.id));
         	}
+        	CommandManager.log("Enemy bomb from %d: %d targets", bomb.from, candidates.size());
         }
     }
 	
-	public static void reportBombImpact(Cell cell) {
-		Bomb bomb = null;
+	/**
+	 * Called by the cell before it advanced its bomb danger to the current round.
+	 */
+	public void reportBombImpact(Cell cell) {
+		int slot = -1;
 		
-		if (cell.bombImpacts.size() == 1) {
-			bomb = cell.bombImpacts.get(0).bomb;
-		} else if (cell.bombImpacts.size() >= 2) {
-			for (PredictedBombImpact bombImpact : cell.bombImpacts) {
-				if (bombImpact.predictedImpact == GameState.round) {
-					if (bomb != null) {
-						return; // More than one bomb were expected to hit this round. Cant determine which bomb hit and which one might be still traveling.
-					}
-					bomb = bombImpact.bomb;
-				}
+		int bombCount = bombDanger.getBombCount(cell.id);
+		if (bombCount == 1) {
+			slot = bombDanger.findBomb(cell.id, 64);
+		} else if (bombCount >= 2) {
+			slot = bombDanger.findBomb(cell.id, 1); // the impact in the current round (the cell has not advanced yet)
+			if (slot == BombDanger.AMBIGUOUS) {
+				return; // More than one bomb were expected to hit this round. Cant determine which bomb hit and which one might be still traveling.
 			}
 		}
 		
-		if (bomb == null) {
-			return; // No bomb found?!
+		if (slot == -1) {
+			// THE CELL WAS NOT A POSSIBLE TARGET: THE ENEMY BOMB ARRIVING NOW WOULD OTHERWISE BE TRACKED UNTIL ITS LAST TARGET EXPIRES
+			slot = bombTargets.findBomb(cell.id);
+			if (slot < 0) {
+				return; // No bomb found or more than one could have hit the cell.
+			}
 		}
 		
-		for (Cell c : cells) {
-			c.removeIncomingBomb(bomb);
-		}
+		bombDanger.removeBomb(slot);
+		bombTargets.removeBomb(slot);
 	}
     
-    public static Cell getCellByID(int cellID) {
+    /**
+     * @return Returns true if the input contains another round to update the game state with.
+     */
+    public boolean hasNextRound() {
+    	return reader.hasNext();
+    }
+    
+    public Cell getCellByID(int cellID) {
 		return cells[cellID];
 	}
 
 
-    public static int getDistanceBetweenCells(int cellID1, int cellID2) {
-        return distances[cellID1][cellID2];
+    public int getDistanceBetweenCells(int cellID1, int cellID2) {
+        return distances[cellID1*cellCount + cellID2];
+    }
+    
+    /**
+     * @return The IDs of all other cells sorted from closest to farthest (cells with the same distance by ID).
+     */
+    public int[] findNeighbors(int cellID) {
+    	int[] neighbors = new int[cellCount-1];
+    	int count = 0;
+    	int row = cellID*cellCount;
+    	for (int i = 0; i < cellCount; i++) {
+    		if (i == cellID) {
+    			continue;
+    		}
+    		int distance = distances[row + i];
+    		int j = count++;
+    		while (j > 0 && distances[row + neighbors[j-1]] > distance) { // insertion sort, keeps the ID order for equal distances
+    			neighbors[j] = neighbors[j-1];
+    			j--;
+    		}
+    		neighbors[j] = i;
+    	}
+    	return neighbors;
     }
     
-    public static int getDistanceBetweenCells(Cell cell1, Cell cell2) {
+    public int getDistanceBetweenCells(Cell cell1, Cell cell2) {
     	return getDistanceBetweenCells(cell1.id, cell2.id);
     }
 
 
-    public static ArrayList<Cell> getFriendlyCells() {
+    public CellSet getFriendlyCells() {
         return friendlyCells;
     }
 
-    public static ArrayList<Cell> getEnemyCells() {
+    public CellSet getEnemyCells() {
         return enemyCells;
     }
 
-    public static ArrayList<Cell> getNeutralCells() {
+    public CellSet getNeutralCells() {
         return neutralCells;
     }
 
 
-    public static ArrayList<Cell> getFriendlyCellsByProduction() {
-    	return friendlyCellsByProduction;
+    public CellHeap getFriendlyCellsByProduction() {
+    	return partition.getHeap(1);
     }
 
-    public static ArrayList<Cell> getEnemyCellsByProduction() {
-    	return enemyCellsByProduction;
+    public CellHeap getEnemyCellsByProduction() {
+    	return partition.getHeap(-1);
     }
 
-    public static ArrayList<Cell> getNeutralCellsByScore() {
-    	return neutralCellsByScore;
-    }
-    
-    
-    private static void updateCellLists() {
-        friendlyCells = new ArrayList<Cell>();
-        enemyCells = new ArrayList<Cell>();
-        neutralCells = new ArrayList<Cell>();
-    	
-        for (Cell cell : cells) {
-        	if (cell.owner == 1) {
-        		friendlyCells.add(cell);
-        	} else if (cell.owner == -1) {
-        		enemyCells.add(cell);
-        	} else {
-        		neutralCells.add(cell);
-        	}
-        }
+    public CellHeap getNeutralCellsByScore() {
+    	return partition.getHeap(0);
     }
     
-    private static void updateSortedCellLists() {
-        friendlyCellsByProduction = new ArrayList<Cell>(friendlyCells);
-        enemyCellsByProduction = new ArrayList<Cell>(enemyCells);
-        neutralCellsByScore = new ArrayList<Cell>(neutralCells);
-        
-        friendlyCellsByProduction.sort(new Comparator<Cell>() {
-        	@Override
-        	public int compare(Cell cell1, Cell cell2) {
-        		return cell1.production - cell2.production;
-        	}
-		});
-        enemyCellsByProduction.sort(new Comparator<Cell>() {
-        	@Override
-        	public int compare(Cell cell1, Cell cell2) {
-        		return cell1.production - cell2.production;
-        	}
-		});
-        neutralCellsByScore.sort(new Comparator<Cell>() {
-			@Override
-			public int compare(Cell c1, Cell c2) {
-				// sorts by best production value based on defending stationary units of the cell
-				int prod1 = c1.production;
-				int prod2 = c2.production;
-				
-				int units1 = c1.units;
-				int units2 = c2.units;
-				
-				double score1 = ((double) prod1 / units1);
-				double score2 = ((double) prod2 / units2);
-				
-				if (score1 > score2) {
-					return 1;
-				} else if (score1 < score2) {
-					return -1;
-				} else {
-					return 0;
-				}
-			}
-		});
-    }
     
+	/**
+	 * Called when a cell changed its owner during the update.
+	 * @param cell The cell with its new owner already set.
+	 * @param previousOwner The owner of the cell before the update.
+	 */
+	public void ownershipChanged(Cell cell, int previousOwner) {
+		partition.ownershipChanged(cell, previousOwner);
+		frontRouting.cellChanged(cell.id);
+		nearest.ownershipChanged(cell, previousOwner);
+	}
+	
+}
 
-	public static void ownershipChanged() {
-		updateCellLists = true;
+/**
+ * Contains the shortest path distance and the next cell on the shortest path between all cells, stored in flat arrays [from*cellCount + to].
+ * Only links up to MAX_NEIGHBOR_DISTANCE are used as path segments.
+ * Created with the Floyd-Warshall algorithm: the plain version for small maps and a tiled version for large maps,
+ * which splits the independent tiles of each phase across a ForkJoinPool.
+ * The bot routes its units with the FrontRouting, this table is only used by the benchmark (see Player --bench-routing).
+ */
+class RoutingTable {
+	
+	static final int UNREACHABLE = Integer.MAX_VALUE/4; // distance without path (sum of two does not overflow)
+	static final int MAX_NEIGHBOR_DISTANCE = 7; // limits neighbors to the closest ones
+	static final int TILE = 64; // tile width of the tiled version
+	
+	static int tiledThreshold = 64; // cell count from which the tiled version is used (see Player --bench-routing)
+	
+	final int cellCount;
+	final int[] distance; // shortest path distance or UNREACHABLE
+	final int[] next; // next cell on the shortest path (the target itself for a direct link) or -1
+	
+	private RoutingTable(int cellCount) {
+		this.cellCount = cellCount;
+		this.distance = new int[cellCount*cellCount];
+		this.next = new int[cellCount*cellCount];
 	}
 	
 	/**
-	 * Creates the routing table with the Floyd-Warshall algorithm
+	 * Creates the routing table for the given map.
+	 * @param distances The distances between all cells ([cellID1*cellCount + cellID2]).
+	 * @param cellCount The number of cells.
 	 */
-	private static int[][] createRoutingTable() {
-		
-		// FROM-TO TABLES
-		int[][] distanceTable = new int[cellCount][cellCount];
-		int[][] routingTable = new int[cellCount][cellCount];
-		
-		// INIT
-		final int MAX_NEIGHBOR_DISTANCE = 7; // limits neighbors to the closest ones
-		for (int i = 0; i < cellCount; i++) {
-			for (int j = 0; j < cellCount; j++) {
-				int distance = getDistanceBetweenCells(i, j);
-				if (i == j) {
-					distanceTable[i][j] = 100;
-					routingTable[i][j] = -1;
-				} else if (distance <= MAX_NEIGHBOR_DISTANCE) {
-					distanceTable[i][j] = distance;
-					routingTable[i][j] = j;
+	public static RoutingTable create(byte[] distances, int cellCount) {
+		RoutingTable table = init(distances, cellCount);
+		if (table.cellCount < tiledThreshold) {
+			table.computePlain();
+		} else {
+			table.computeTiled(ForkJoinPool.commonPool());
+		}
+		return table;
+	}
+	
+	/**
+	 * @return The next cell on the shortest path or -1 if the cells are neighbors or not connected (same as FrontRouting.getNextHop).
+	 */
+	public int getNextHop(int from, int to) {
+		int hop = next[from*cellCount + to];
+		return (hop == to ? -1 : hop);
+	}
+	
+	/**
+	 * @return The length of the shortest path or UNREACHABLE.
+	 */
+	public int getDistance(int from, int to) {
+		return distance[from*cellCount + to];
+	}
+	
+	private static RoutingTable init(byte[] distances, int n) {
+		RoutingTable table = new RoutingTable(n);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int index = i*n + j;
+				if (i != j && distances[index] <= MAX_NEIGHBOR_DISTANCE) {
+					table.distance[index] = distances[index];
+					table.next[index] = j;
 				} else {
-					distanceTable[i][j] = 100;
-					routingTable[i][j] = -1;
+					table.distance[index] = UNREACHABLE;
+					table.next[index] = -1;
 				}
 			}
 		}
-		
-		// FLOYD-WARSHALL
-		for (int k = 0; k < cellCount; k++) {
-			for (int i = 0; i < cellCount; i++) {
-				for (int j = 0; j < cellCount; j++) {
+		return table;
+	}
+	
+	private void computePlain() {
+		int n = cellCount;
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				int ik = distance[i*n + k];
+				if (i == k || ik == UNREACHABLE) continue;
+				for (int j = 0; j < n; j++) {
 					
-					if (i <= j || i == k || j == k) continue;
+					if (i == j || j == k) continue;
 					
-					int directDistance = distanceTable[i][j];
-					int intermediateDistance = distanceTable[i][k] + distanceTable[k][j];
+					int index = i*n + j;
+					int intermediateDistance = ik + distance[k*n + j];
 					
-					if (intermediateDistance < directDistance) {
-						distanceTable[i][j] = intermediateDistance;
-						distanceTable[j][i] = intermediateDistance;
-						routingTable[i][j] = routingTable[i][k];
-						routingTable[j][i] = routingTable[j][k];
+					if (intermediateDistance < distance[index]) {
+						distance[index] = intermediateDistance;
+						next[index] = next[i*n + k];
 					}
 					
 				}
 			}
 		}
+	}
+	
+	/**
+	 * Tiled Floyd-Warshall: for each diagonal tile, first the diagonal tile itself is relaxed,
+	 * then the tiles in its row and column, then all remaining tiles. The tiles of the last two steps are independent of each other.
+	 */
+	private void computeTiled(ForkJoinPool pool) {
+		int tiles = (cellCount + TILE-1) / TILE;
+		for (int kt = 0; kt < tiles; kt++) {
+			relaxTile(kt, kt, kt);
+			pool.invoke(new TileTask(this, kt, 0, tiles, true));
+			pool.invoke(new TileTask(this, kt, 0, tiles*tiles, false));
+		}
+	}
+	
+	/**
+	 * Relaxes the paths of the tile (it, jt) via the cells of tile kt.
+	 */
+	private void relaxTile(int kt, int it, int jt) {
+		int n = cellCount;
+		int kEnd = Math.min(n, (kt+1)*TILE);
+		int iEnd = Math.min(n, (it+1)*TILE);
+		int jStart = jt*TILE;
+		int jEnd = Math.min(n, (jt+1)*TILE);
+		for (int k = kt*TILE; k < kEnd; k++) {
+			for (int i = it*TILE; i < iEnd; i++) {
+				int ik = distance[i*n + k];
+				if (i == k || ik == UNREACHABLE) continue;
+				int nextHop = next[i*n + k];
+				for (int j = jStart; j < jEnd; j++) {
+					if (i == j || j == k) continue;
+					int index = i*n + j;
+					int intermediateDistance = ik + distance[k*n + j];
+					if (intermediateDistance < distance[index]) {
+						distance[index] = intermediateDistance;
+						next[index] = nextHop;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Relaxes a range of independent tiles of one phase, split recursively so idle workers can steal parts of it.
+	 */
+	@SuppressWarnings("serial")
+	private static class TileTask extends RecursiveAction {
+		
+		private static final int SPLIT = 4; // tiles per task
 		
+		private final RoutingTable table;
+		private final int kt;
+		private final int start;
+		private final int end;
+		private final boolean crossPhase; // true: tiles in the row and column of kt (index < tiles: row, else column), false: remaining tiles
+		
+		TileTask(RoutingTable table, int kt, int start, int end, boolean crossPhase) {
+			this.table = table;
+			this.kt = kt;
+			this.start = start;
+			this.end = end;
+			this.crossPhase = crossPhase;
+		}
 		
-		return routingTable;
+		@Override
+		protected void compute() {
+			if (end-start > SPLIT) {
+				int middle = (start+end) >>> 1;
+				invokeAll(new TileTask(table, kt, start, middle, crossPhase), new TileTask(table, kt, middle, end, crossPhase));
+				return;
+			}
+			int tiles = (table.cellCount + TILE-1) / TILE;
+			for (int t = start; t < end; t++) {
+				if (crossPhase) {
+					if (t == kt) continue;
+					table.relaxTile(kt, kt, t); // row of kt
+					table.relaxTile(kt, t, kt); // column of kt
+				} else {
+					int it = t / tiles;
+					int jt = t % tiles;
+					if (it == kt || jt == kt) continue;
+					table.relaxTile(kt, it, jt);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compares the plain and the tiled version on random maps of increasing size to determine the threshold of the tiled version.
+	 */
+	static void benchmark() {
+		Random random = new Random(42);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		System.out.println("parallelism: " + pool.getParallelism());
+		for (int n = 16; n <= 1024; n *= 2) {
+			byte[] distances = new byte[n*n];
+			for (int i = 0; i < n; i++) {
+				for (int j = i+1; j < n; j++) {
+					distances[i*n + j] = distances[j*n + i] = (byte) (1 + random.nextInt(20));
+				}
+			}
+			int repetitions = Math.max(1, 2_000_000 / (n*n));
+			long plain = Long.MAX_VALUE;
+			long tiled = Long.MAX_VALUE;
+			for (int round = 0; round < 5; round++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < repetitions; r++) {
+					init(distances, n).computePlain();
+				}
+				plain = Math.min(plain, (System.nanoTime()-start) / repetitions);
+				start = System.nanoTime();
+				for (int r = 0; r < repetitions; r++) {
+					init(distances, n).computeTiled(pool);
+				}
+				tiled = Math.min(tiled, (System.nanoTime()-start) / repetitions);
+			}
+			System.out.println("cells " + n + ": plain " + (plain/1000) + " us, tiled " + (tiled/1000) + " us");
+		}
 	}
+	
 }
 
-class Cell {
-
-    int id;
-    int owner;
-    int units;
-    int production;
-    int productionDisabled;
-
-	int[] incomingUnits;
-	int[] incomingFriendlyUnits;
-	int[] incomingEnemyUnits;
-	int incomingTotalEnemyUnits;
-	int incomingTotalFriendlyUnits;
-    ArrayList<PredictedBombImpact> bombImpacts;
-    
-    ArrayList<Neighbor> neighbors;
-    
-    LinkedList<RoundCommands> commands;
-    
-    ThreatStatus threatStatus;
-    
-    
-    public Cell(int id, int owner, int units, int production) {
-        this.id = id;
-        this.owner = owner;
-        this.units = units;
-        this.production = production;
-        this.productionDisabled = 0;
-        
-        this.threatStatus = ThreatStatus.SAFE;
-
-		this.incomingUnits = new int[21];
-		this.incomingFriendlyUnits = new int[21];
-		this.incomingEnemyUnits = new int[21];
-		this.incomingTotalEnemyUnits = 0;
-		this.incomingTotalFriendlyUnits = 0;
-		this.bombImpacts = new ArrayList<PredictedBombImpact>(4);
-        
-        this.neighbors = new ArrayList<Neighbor>();
-        for (int i = 0; i < GameState.cellCount; i++) {
-        	if (i != this.id) {
-        		this.neighbors.add(new Neighbor(i, GameState.getDistanceBetweenCells(this.id, i)));
-        	}
-        }
-        this.neighbors.sort(null); // uses .compareTo of Neighbor (natural ordering: closest to farthest)
-       
-		commands = new LinkedList<RoundCommands>();
-		for (int i = 0; i < 21; i++) {
-			commands.add(new RoundCommands(id));
+/**
+ * Contains the shortest paths between all cells based on the current front line: passing through a cell costs a penalty
+ * depending on its owner and on expected bomb impacts, so troops are not routed through enemy cells or into bombs.
+ * The paths of each source cell are determined by Dijkstra's algorithm. When the penalty of a cell changes,
+ * only the source cells whose paths are affected by it are determined again.
+ */
+class FrontRouting {
+	
+	static final int NEUTRAL_PENALTY = 2;
+	static final int BOMB_PENALTY = 10;
+	static final int FULL_UPDATE_THRESHOLD = 4; // changed cells from which all paths are determined again instead of checking each cell
+	
+	private final GameState game;
+	private final Cell[] cells;
+	private final int cellCount;
+	private final int enemyPenalty; // longer than any path without enemy cells: enemy cells are only passed if there is no other path
+	
+	private final int[] penalty; // [cellID]: the penalty currently used for passing through the cell
+	private final int[] distance; // [from*cellCount + to]: the length of the path including penalties or UNREACHABLE
+	private final int[] parent; // [from*cellCount + to]: the cell before 'to' on the path or -1
+	private final int[] next; // [from*cellCount + to]: the first cell on the path or -1
+	
+	private final boolean[] changed; // [cellID]: the penalty of the cell has to be checked on the next update
+	private final int[] changedCells;
+	private int changedCount;
+	
+	private final boolean[] settled; // used by Dijkstra's algorithm
+	
+	public FrontRouting(GameState game) {
+		this.game = game;
+		this.cells = game.cells;
+		this.cellCount = cells.length;
+		this.enemyPenalty = cellCount * (RoutingTable.MAX_NEIGHBOR_DISTANCE + NEUTRAL_PENALTY + BOMB_PENALTY); // bound of the longest path passing each cell once
+		this.penalty = new int[cellCount];
+		this.distance = new int[cellCount*cellCount];
+		this.parent = new int[cellCount*cellCount];
+		this.next = new int[cellCount*cellCount];
+		this.changed = new boolean[cellCount];
+		this.changedCells = new int[cellCount];
+		this.changedCount = 0;
+		this.settled = new boolean[cellCount];
+		
+		findAllPaths();
+	}
+	
+	/**
+	 * @return The next cell on the path or -1 if the cells are neighbors or not connected.
+	 */
+	public int getNextHop(int from, int to) {
+		int hop = next[from*cellCount + to];
+		return (hop == to ? -1 : hop);
+	}
+	
+	/**
+	 * @return The length of the path including the penalties of the passed cells or RoutingTable.UNREACHABLE.
+	 */
+	public int getDistance(int from, int to) {
+		return distance[from*cellCount + to];
+	}
+	
+	/**
+	 * Marks the cell to be checked on the next update, because its owner or its expected bomb impacts changed.
+	 */
+	public void cellChanged(int cellID) {
+		if (!changed[cellID]) {
+			changed[cellID] = true;
+			changedCells[changedCount++] = cellID;
 		}
-    }
-
-
-	public void update(int owner, int units, int production, int productionDisabled) {
-        if (productionDisabled == 5) {
-        	GameState.reportBombImpact(this);
-        }
-        
-        if (this.owner != owner) {
-        	GameState.ownershipChanged();
-        }
-
-        this.owner = owner;
-        this.units = units;
-        this.productionDisabled = productionDisabled;
-        if (productionDisabled == 0) {
-        	this.production = production;
-        }
+	}
+	
+	/**
+	 * Updates the paths affected by the changed cells. Each changed penalty is applied on its own,
+	 * so the paths are correct for all penalties applied so far before the next one is applied.
+	 * If many cells changed (e.g. by a new enemy bomb), all paths are determined again as that is cheaper than checking each cell.
+	 */
+	public void update() {
+		if (changedCount > FULL_UPDATE_THRESHOLD) {
+			findAllPaths();
+			return;
+		}
+		
+		int searches = 0;
+		for (int c = 0; c < changedCount; c++) {
+			int cellID = changedCells[c];
+			changed[cellID] = false;
+			
+			int previousPenalty = penalty[cellID];
+			int newPenalty = getPenalty(cells[cellID]);
+			if (newPenalty == previousPenalty) {
+				continue;
+			}
+			penalty[cellID] = newPenalty;
+			
+			for (int source = 0; source < cellCount; source++) {
+				if (source == cellID) {
+					continue; // the penalty does not apply to paths starting at the cell
+				}
+				boolean affected = (newPenalty > previousPenalty ? isPassedBy(source, cellID) : canBeShortenedBy(source, cellID));
+				if (affected) {
+					findPaths(source);
+					if (++searches == cellCount) {
+						findAllPaths(); // no cheaper than determining all paths anymore
+						return;
+					}
+				}
+			}
+		}
+		changedCount = 0;
+	}
+	
+	/**
+	 * Applies the penalties of all cells and determines the paths of all sources again.
+	 */
+	private void findAllPaths() {
+		for (int c = 0; c < changedCount; c++) {
+			changed[changedCells[c]] = false;
+		}
+		changedCount = 0;
+		
+		for (int i = 0; i < cellCount; i++) {
+			penalty[i] = getPenalty(cells[i]);
+		}
+		for (int source = 0; source < cellCount; source++) {
+			findPaths(source);
+		}
+	}
+	
+	private int getPenalty(Cell cell) {
+		int penalty;
+		if (cell.owner() == 1) {
+			penalty = 0;
+		} else if (cell.owner() == -1) {
+			penalty = enemyPenalty;
+		} else {
+			penalty = NEUTRAL_PENALTY;
+		}
+		if (cell.isBombImpactExpected()) {
+			penalty += BOMB_PENALTY;
+		}
+		return penalty;
+	}
+	
+	/**
+	 * @return Returns true if any path of the source passes through the cell.
+	 */
+	private boolean isPassedBy(int source, int cellID) {
+		int row = source*cellCount;
+		for (int to = 0; to < cellCount; to++) {
+			if (parent[row + to] == cellID) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return Returns true if any path of the source gets shorter by passing through the cell with its current penalty.
+	 */
+	private boolean canBeShortenedBy(int source, int cellID) {
+		int row = source*cellCount;
+		int viaCell = distance[row + cellID];
+		if (viaCell == RoutingTable.UNREACHABLE) {
+			return false;
+		}
+		viaCell += penalty[cellID];
+		int cellRow = cellID*cellCount;
+		for (int to = 0; to < cellCount; to++) {
+			if (to != source && to != cellID && viaCell + distance[cellRow + to] < distance[row + to]) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Determines the paths from the source to all cells with Dijkstra's algorithm (dense version, as all cells are linked).
+	 */
+	private void findPaths(int source) {
+		int row = source*cellCount;
+		for (int i = 0; i < cellCount; i++) {
+			distance[row + i] = RoutingTable.UNREACHABLE;
+			parent[row + i] = -1;
+			next[row + i] = -1;
+			settled[i] = false;
+		}
+		distance[row + source] = 0;
+		
+		for (int round = 0; round < cellCount; round++) {
+			// SETTLE THE CLOSEST CELL
+			int current = -1;
+			for (int i = 0; i < cellCount; i++) {
+				if (!settled[i] && distance[row + i] != RoutingTable.UNREACHABLE && (current == -1 || distance[row + i] < distance[row + current])) {
+					current = i;
+				}
+			}
+			if (current == -1) {
+				break; // remaining cells are not connected
+			}
+			settled[current] = true;
+			if (current != source) {
+				int previous = parent[row + current];
+				next[row + current] = (previous == source ? current : next[row + previous]);
+			}
+			
+			// RELAX THE LINKS OF THE CELL
+			int base = distance[row + current] + (current == source ? 0 : penalty[current]);
+			for (int i : cells[current].neighbors) { // sorted from closest to farthest
+				int link = game.getDistanceBetweenCells(current, i);
+				if (link > RoutingTable.MAX_NEIGHBOR_DISTANCE) {
+					break;
+				}
+				if (settled[i]) {
+					continue;
+				}
+				if (base + link < distance[row + i]) {
+					distance[row + i] = base + link;
+					parent[row + i] = current;
+				}
+			}
+		}
+	}
+	
+}
+
+/**
+ * Infers the possible targets of enemy bombs, whose destination is unknown: a bomb is only expected to hit
+ * cells worth a bomb at launch, and a cell is no longer a possible target once the bomb would have arrived there without an impact.
+ * The bombs are indexed by their BombDanger slot, so only the possible targets keep an expected impact.
+ */
+class BombTargetInference {
+	
+	private final GameState game;
+	private Bomb[] bombs; // [slot]: the tracked enemy bomb of the slot or null
+	private CellSet[] candidates; // [slot]: the cells the bomb might still hit
+	
+	public BombTargetInference(GameState game) {
+		this.game = game;
+		this.bombs = new Bomb[4];
+		this.candidates = new CellSet[4];
+	}
+	
+	/**
+	 * Starts tracking the enemy bomb.
+	 * @return The cells the bomb might hit.
+	 */
+	public CellSet addBomb(Bomb bomb, int slot) {
+		if (slot >= bombs.length) {
+			bombs = Arrays.copyOf(bombs, slot*2);
+			candidates = Arrays.copyOf(candidates, slot*2);
+		}
+		CellSet targets = new CellSet(game.cells);
+		for (Cell cell : game.cells) {
+			if (isPossibleTarget(bomb, cell)) {
+				targets.add(cell.id);
+			}
+		}
+		bombs[slot] = bomb;
+		candidates[slot] = targets;
+		return targets;
+	}
+	
+	/**
+	 * The bomb hit a cell and is no longer tracked.
+	 */
+	public void removeBomb(int slot) {
+		if (slot < bombs.length) {
+			bombs[slot] = null;
+			candidates[slot] = null;
+		}
+	}
+	
+	/**
+	 * Finds the bomb that hit the cell in this round by its flight time, for a hit on a cell which was not a possible target of any bomb.
+	 * @return The slot of the only tracked bomb which arrives at the cell in this round, -1 if there is none or BombDanger.AMBIGUOUS.
+	 */
+	public int findBomb(int cellID) {
+		int found = -1;
+		for (int slot = 0; slot < bombs.length; slot++) {
+			Bomb bomb = bombs[slot];
+			if (bomb != null && game.getDistanceBetweenCells(bomb.from, cellID) == game.round - bomb.launched) {
+				if (found != -1) {
+					return BombDanger.AMBIGUOUS;
+				}
+				found = slot;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Drops the cells the bombs would have already hit. A bomb without any possible targets left is no longer tracked.
+	 */
+	public void update() {
+		for (int slot = 0; slot < bombs.length; slot++) {
+			Bomb bomb = bombs[slot];
+			if (bomb == null) {
+				continue;
+			}
+			int elapsed = game.round - bomb.launched;
+			CellSet targets = candidates[slot];
+			for (int cellID = targets.first(); cellID != -1; cellID = targets.next(cellID+1)) {
+				if (game.getDistanceBetweenCells(bomb.from, cellID) < elapsed) {
+					targets.remove(cellID);
+				}
+			}
+			if (targets.isEmpty()) {
+				removeBomb(slot);
+				game.bombDanger.removeBomb(slot);
+			}
+		}
+	}
+	
+	/**
+	 * Bombs are not sent to the own cells of the enemy, nor to neutral cells without production, which have nothing to disable.
+	 */
+	private static boolean isPossibleTarget(Bomb bomb, Cell cell) {
+		if (cell.id == bomb.from || cell.owner() == -1) {
+			return false;
+		}
+		return !(cell.owner() == 0 && cell.production() == 0);
+	}
+	
+}
+
+/**
+ * Stores the rounds in which bombs are expected to hit each cell as bitmaps: bit k is set if an impact is expected in k rounds.
+ * Each launched bomb gets a slot with one bitmap per cell, the bitmaps of all slots are combined per cell for the queries.
+ * Each cell advances its bitmaps once per round during its update, which drops the impacts of the previous round.
+ */
+class BombDanger {
+	
+	static final int AMBIGUOUS = -2;
+	
+	private final GameState game;
+	private final int cellCount;
+	private Bomb[] bombs; // [slot]: the bomb of the slot or null
+	private long[] danger; // [slot*cellCount + cellID]: the expected impacts of the bomb of the slot
+	private final long[] combined; // [cellID]: the expected impacts of all bombs
+	
+	public BombDanger(GameState game) {
+		this.game = game;
+		this.cellCount = game.cellCount;
+		this.bombs = new Bomb[4]; // each player has two bombs
+		this.danger = new long[bombs.length*cellCount];
+		this.combined = new long[cellCount];
+	}
+	
+	/**
+	 * @return A mask with the bits 'from' to 'to' (inclusive) set, limited to the 64 tracked rounds.
+	 */
+	static long mask(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, 63);
+		if (from > to) {
+			return 0L;
+		}
+		return (-1L >>> (63 - to)) & (-1L << from);
+	}
+	
+	/**
+	 * @return The expected impacts of all bombs at the cell.
+	 */
+	public long get(int cellID) {
+		return combined[cellID];
+	}
+	
+	/**
+	 * @return The slot of the bomb, which is used to add its expected impacts.
+	 */
+	public int addBomb(Bomb bomb) {
+		int slot = 0;
+		while (slot < bombs.length && bombs[slot] != null) {
+			slot++;
+		}
+		if (slot == bombs.length) {
+			bombs = Arrays.copyOf(bombs, bombs.length*2);
+			danger = Arrays.copyOf(danger, bombs.length*cellCount);
+		}
+		bombs[slot] = bomb;
+		return slot;
+	}
+	
+	public void addImpact(int slot, int cellID, int inRounds) {
+		if (inRounds < 0 || inRounds > 63) {
+			return;
+		}
+		long bit = 1L << inRounds;
+		danger[slot*cellCount + cellID] |= bit;
+		combined[cellID] |= bit;
+		game.frontRouting.cellChanged(cellID);
+	}
+	
+	/**
+	 * Removes the bomb of the slot from all cells.
+	 */
+	public void removeBomb(int slot) {
+		bombs[slot] = null;
+		int row = slot*cellCount;
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			if (danger[row + cellID] == 0) {
+				continue;
+			}
+			danger[row + cellID] = 0;
+			long impacts = 0;
+			for (int s = 0; s < bombs.length; s++) {
+				impacts |= danger[s*cellCount + cellID];
+			}
+			combined[cellID] = impacts;
+			game.frontRouting.cellChanged(cellID);
+		}
+	}
+	
+	/**
+	 * @return The amount of bombs expected to hit the cell.
+	 */
+	public int getBombCount(int cellID) {
+		int count = 0;
+		for (int slot = 0; slot < bombs.length; slot++) {
+			if (danger[slot*cellCount + cellID] != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @param inRounds The round of the impact relative to the last advance of the cell or 64 for any round.
+	 * @return The slot of the only bomb expected to hit the cell in that round, -1 if there is none or AMBIGUOUS if there are several.
+	 */
+	public int findBomb(int cellID, int inRounds) {
+		long bits = (inRounds == 64 ? -1L : BombDanger.mask(inRounds, inRounds));
+		int found = -1;
+		for (int slot = 0; slot < bombs.length; slot++) {
+			if ((danger[slot*cellCount + cellID] & bits) != 0) {
+				if (found != -1) {
+					return AMBIGUOUS;
+				}
+				found = slot;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Advances the bitmaps of the cell by one round.
+	 * @return Returns true if impacts of the previous round were dropped.
+	 */
+	public boolean advance(int cellID) {
+		long impacts = combined[cellID];
+		if (impacts == 0) {
+			return false;
+		}
+		for (int slot = 0; slot < bombs.length; slot++) {
+			danger[slot*cellCount + cellID] >>>= 1;
+		}
+		combined[cellID] = impacts >>> 1;
+		return (impacts & 1L) != 0;
+	}
+	
+}
+
+/**
+ * A compact copy of the game state which can be advanced turn by turn with the full rules of the game:
+ * troop and bomb movement, orders, production, battles, bomb explosions and the production-disabled countdown.
+ * Troops are stored as the units of each player arriving at each cell in a ring of 'horizon' turns like the CellStore.
+ * All arrays are allocated once, so copying a state and simulating turns does not allocate.
+ * Owners are seen from our side (1 for friendly, -1 for hostile, 0 for neutral).
+ */
+class Simulation {
+	
+	static final int MAX_BOMBS = 8;
+	
+	final int cellCount;
+	final int horizon; // has to be greater than the longest distance, as new troops arrive after distance+1 turns
+	private final byte[] distances; // shared with the GameState
+	
+	int turn;
+	final int[] owner;
+	final int[] units;
+	final int[] production;
+	final int[] disabled; // the remaining turns without production
+	
+	private int offset; // the slot of the current turn
+	final int[] arrivingFriendlyUnits; // [cellID*horizon + slot]
+	final int[] arrivingEnemyUnits; // [cellID*horizon + slot]
+	final int[] unitsInFlight; // [owner+1]: the units in troops of each player
+	
+	final int[] bombOwner;
+	final int[] bombTo;
+	final int[] bombRemaining; // the turns until the bomb explodes
+	int bombCount;
+	final int[] bombsAvailable; // [owner+1]
+	
+	public Simulation(int cellCount, int horizon, byte[] distances) {
+		this.cellCount = cellCount;
+		this.horizon = horizon;
+		this.distances = distances;
+		this.owner = new int[cellCount];
+		this.units = new int[cellCount];
+		this.production = new int[cellCount];
+		this.disabled = new int[cellCount];
+		this.arrivingFriendlyUnits = new int[cellCount*horizon];
+		this.arrivingEnemyUnits = new int[cellCount*horizon];
+		this.unitsInFlight = new int[3];
+		this.bombOwner = new int[MAX_BOMBS];
+		this.bombTo = new int[MAX_BOMBS];
+		this.bombRemaining = new int[MAX_BOMBS];
+		this.bombsAvailable = new int[3];
+	}
+	
+	/**
+	 * Creates a simulation of the current game state. Enemy bombs are left out, as their target is unknown.
+	 */
+	public static Simulation fromGameState(GameState game) {
+		Simulation simulation = new Simulation(game.cellCount, game.store.horizon, game.distances);
+		simulation.load(game);
+		return simulation;
+	}
+	
+	/**
+	 * Overwrites this simulation with the current game state.
+	 */
+	public void load(GameState game) {
+		CellStore store = game.store;
+		turn = game.round;
+		offset = 0;
+		unitsInFlight[0] = 0;
+		unitsInFlight[2] = 0;
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			owner[cellID] = store.owner[cellID];
+			units[cellID] = store.units[cellID];
+			production[cellID] = store.production[cellID];
+			disabled[cellID] = store.productionDisabled[cellID];
+			int row = cellID*horizon;
+			arrivingFriendlyUnits[row] = 0; // arrived before the current turn
+			arrivingEnemyUnits[row] = 0;
+			for (int inTurns = 1; inTurns < horizon; inTurns++) {
+				int index = store.index(cellID, inTurns);
+				arrivingFriendlyUnits[row + inTurns] = store.incomingFriendlyUnits[index];
+				arrivingEnemyUnits[row + inTurns] = store.incomingEnemyUnits[index];
+				unitsInFlight[2] += store.incomingFriendlyUnits[index];
+				unitsInFlight[0] += store.incomingEnemyUnits[index];
+			}
+		}
+		bombCount = 0;
+		for (Bomb bomb : game.history.bombs) {
+			if (bomb.owner == 1 && bomb.impact > turn && bombCount < MAX_BOMBS) {
+				bombOwner[bombCount] = 1;
+				bombTo[bombCount] = bomb.to;
+				bombRemaining[bombCount] = bomb.impact - turn;
+				bombCount++;
+			}
+		}
+		bombsAvailable[2] = game.ownBombsAvailable;
+		bombsAvailable[0] = game.enemyBombsAvailable;
+	}
+	
+	/**
+	 * Overwrites this simulation with the other one (of the same map).
+	 */
+	public void copyFrom(Simulation other) {
+		turn = other.turn;
+		System.arraycopy(other.owner, 0, owner, 0, cellCount);
+		System.arraycopy(other.units, 0, units, 0, cellCount);
+		System.arraycopy(other.production, 0, production, 0, cellCount);
+		System.arraycopy(other.disabled, 0, disabled, 0, cellCount);
+		offset = other.offset;
+		System.arraycopy(other.arrivingFriendlyUnits, 0, arrivingFriendlyUnits, 0, arrivingFriendlyUnits.length);
+		System.arraycopy(other.arrivingEnemyUnits, 0, arrivingEnemyUnits, 0, arrivingEnemyUnits.length);
+		System.arraycopy(other.unitsInFlight, 0, unitsInFlight, 0, 3);
+		bombCount = other.bombCount;
+		System.arraycopy(other.bombOwner, 0, bombOwner, 0, bombCount);
+		System.arraycopy(other.bombTo, 0, bombTo, 0, bombCount);
+		System.arraycopy(other.bombRemaining, 0, bombRemaining, 0, bombCount);
+		System.arraycopy(other.bombsAvailable, 0, bombsAvailable, 0, 3);
+	}
+	
+	/**
+	 * @return A new simulation with the same state.
+	 */
+	public Simulation copy() {
+		Simulation copy = new Simulation(cellCount, horizon, distances);
+		copy.copyFrom(this);
+		return copy;
+	}
+	
+	/**
+	 * @return Returns true if the other simulation is of the same map, so it can be copied into this one.
+	 */
+	public boolean isSameMap(Simulation other) {
+		return distances == other.distances && horizon == other.horizon;
+	}
+	
+	public int getDistance(int from, int to) {
+		return distances[from*cellCount + to];
+	}
+	
+	/**
+	 * Sends units of the player as an order of the current turn. Invalid orders are ignored like by the game.
+	 */
+	public void move(int player, int from, int to, int amount) {
+		if (owner[from] != player || from == to) {
+			return;
+		}
+		amount = Math.min(amount, units[from]);
+		if (amount <= 0) {
+			return;
+		}
+		units[from] -= amount;
+		int index = to*horizon + slot(getDistance(from, to)+1); // the troop moves for the first time next turn
+		if (player == 1) {
+			arrivingFriendlyUnits[index] += amount;
+		} else {
+			arrivingEnemyUnits[index] += amount;
+		}
+		unitsInFlight[player+1] += amount;
+	}
+	
+	/**
+	 * Sends a bomb of the player as an order of the current turn.
+	 */
+	public void bomb(int player, int from, int to) {
+		if (owner[from] != player || from == to || bombsAvailable[player+1] == 0 || bombCount == MAX_BOMBS) {
+			return;
+		}
+		bombsAvailable[player+1]--;
+		bombOwner[bombCount] = player;
+		bombTo[bombCount] = to;
+		bombRemaining[bombCount] = getDistance(from, to)+1;
+		bombCount++;
+	}
+	
+	/**
+	 * Increases the production of the cell as an order of the current turn.
+	 */
+	public void upgrade(int player, int cellID) {
+		if (owner[cellID] == player && units[cellID] >= 10 && production[cellID] < 3) {
+			units[cellID] -= 10;
+			production[cellID]++;
+		}
+	}
+	
+	/**
+	 * Ends the current turn after the orders of both players: moves troops and bombs, produces units, resolves the battles and explodes the bombs.
+	 */
+	public void endTurn() {
+		turn++;
+		offset++;
+		if (offset == horizon) {
+			offset = 0;
+		}
+		
+		// PRODUCTION
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			if (disabled[cellID] > 0) {
+				disabled[cellID]--;
+			} else if (owner[cellID] != 0) {
+				units[cellID] += production[cellID];
+			}
+		}
+		
+		// BATTLES: THE ARRIVING TROOPS FIGHT EACH OTHER FIRST, THE REMAINING UNITS FIGHT THE UNITS IN THE CELL
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			int index = cellID*horizon + offset;
+			int friendly = arrivingFriendlyUnits[index];
+			int enemy = arrivingEnemyUnits[index];
+			if (friendly == 0 && enemy == 0) {
+				continue;
+			}
+			arrivingFriendlyUnits[index] = 0;
+			arrivingEnemyUnits[index] = 0;
+			unitsInFlight[2] -= friendly;
+			unitsInFlight[0] -= enemy;
+			
+			int fought = Math.min(friendly, enemy);
+			friendly -= fought;
+			enemy -= fought;
+			if (friendly > 0) {
+				arrive(cellID, 1, friendly);
+			} else if (enemy > 0) {
+				arrive(cellID, -1, enemy);
+			}
+		}
+		
+		// BOMB EXPLOSIONS
+		for (int i = 0; i < bombCount; i++) {
+			if (--bombRemaining[i] > 0) {
+				continue;
+			}
+			int cellID = bombTo[i];
+			units[cellID] -= Math.min(units[cellID], Math.max(10, units[cellID]/2));
+			disabled[cellID] = 5;
+			
+			bombCount--;
+			bombOwner[i] = bombOwner[bombCount];
+			bombTo[i] = bombTo[bombCount];
+			bombRemaining[i] = bombRemaining[bombCount];
+			i--;
+		}
+	}
+	
+	/**
+	 * Advances the simulation by the given amount of turns without any orders.
+	 */
+	public void advance(int turns) {
+		for (int i = 0; i < turns; i++) {
+			endTurn();
+		}
+	}
+	
+	/**
+	 * @return The units of the player in all cells and troops.
+	 */
+	public int getTotalUnits(int player) {
+		int sum = unitsInFlight[player+1];
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			if (owner[cellID] == player) {
+				sum += units[cellID];
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * @return The production of the player over all cells (including disabled cells).
+	 */
+	public int getTotalProduction(int player) {
+		int sum = 0;
+		for (int cellID = 0; cellID < cellCount; cellID++) {
+			if (owner[cellID] == player) {
+				sum += production[cellID];
+			}
+		}
+		return sum;
+	}
+	
+	private void arrive(int cellID, int player, int amount) {
+		if (owner[cellID] == player) {
+			units[cellID] += amount;
+		} else if (amount > units[cellID]) {
+			owner[cellID] = player;
+			units[cellID] = amount - units[cellID];
+		} else {
+			units[cellID] -= amount;
+		}
+	}
+	
+	private int slot(int inTurns) {
+		int slot = offset + inTurns;
+		if (slot >= horizon) {
+			slot -= horizon;
+		}
+		return slot;
+	}
+	
+	/**
+	 * Measures the simulated turns per second on a random map of 15 cells with troops constantly in flight.
+	 */
+	static void benchmark() {
+		Random random = new Random(42);
+		int n = 15;
+		byte[] distances = new byte[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i+1; j < n; j++) {
+				distances[i*n + j] = distances[j*n + i] = (byte) (1 + random.nextInt(20));
+			}
+		}
+		Simulation start = new Simulation(n, 21, distances);
+		for (int i = 0; i < n; i++) {
+			start.owner[i] = random.nextInt(3)-1;
+			start.units[i] = random.nextInt(30);
+			start.production[i] = random.nextInt(4);
+		}
+		start.bombsAvailable[0] = start.bombsAvailable[2] = 2;
+		
+		Simulation simulation = new Simulation(n, 21, distances);
+		for (int round = 0; round < 5; round++) {
+			long turns = 0;
+			long begin = System.nanoTime();
+			while (System.nanoTime() - begin < 50_000_000L) { // one round of the game
+				simulation.copyFrom(start);
+				for (int t = 0; t < 20; t++) {
+					int from = random.nextInt(n);
+					int player = simulation.owner[from];
+					if (player != 0) {
+						simulation.move(player, from, random.nextInt(n), simulation.units[from]/2);
+					}
+					simulation.endTurn();
+				}
+				turns += 20;
+			}
+			System.out.println("simulated turns in 50 ms: " + turns);
+		}
+	}
+	
+}
+
+/**
+ * The orders of one player in one round as parallel arrays (type, from, to, units) using the command types of the CommandWriter.
+ */
+class Plan {
+	
+	int[] types;
+	int[] from;
+	int[] to;
+	int[] units;
+	int size;
+	
+	public Plan() {
+		this.types = new int[32];
+		this.from = new int[32];
+		this.to = new int[32];
+		this.units = new int[32];
+		this.size = 0;
+	}
+	
+	public void add(int type, int from, int to, int units) {
+		if (size == types.length) {
+			types = Arrays.copyOf(types, size*2);
+			this.from = Arrays.copyOf(this.from, size*2);
+			this.to = Arrays.copyOf(this.to, size*2);
+			this.units = Arrays.copyOf(this.units, size*2);
+		}
+		types[size] = type;
+		this.from[size] = from;
+		this.to[size] = to;
+		this.units[size] = units;
+		size++;
+	}
+	
+	public void remove(int order) {
+		size--;
+		types[order] = types[size];
+		from[order] = from[size];
+		to[order] = to[size];
+		units[order] = units[size];
+	}
+	
+	public void copyFrom(Plan other) {
+		size = 0;
+		for (int i = 0; i < other.size; i++) {
+			add(other.types[i], other.from[i], other.to[i], other.units[i]);
+		}
+	}
+	
+	public void readFrom(CommandWriter writer) {
+		size = 0;
+		for (int i = 0; i < writer.getCommandCount(); i++) {
+			add(writer.getType(i), writer.getFrom(i), writer.getTo(i), writer.getUnits(i));
+		}
+	}
+	
+	/**
+	 * Replaces the commands of the writer with this plan.
+	 */
+	public void writeTo(CommandWriter writer) {
+		writer.clearCommands();
+		for (int i = 0; i < size; i++) {
+			switch (types[i]) {
+			case CommandWriter.MOVE: writer.move(from[i], to[i], units[i]); break;
+			case CommandWriter.BOMB: writer.bomb(from[i], to[i]); break;
+			case CommandWriter.INC: writer.upgrade(from[i]); break;
+			default:
+			}
+		}
+	}
+	
+	public void applyTo(Simulation simulation, int player) {
+		for (int i = 0; i < size; i++) {
+			switch (types[i]) {
+			case CommandWriter.MOVE: simulation.move(player, from[i], to[i], units[i]); break;
+			case CommandWriter.BOMB: simulation.bomb(player, from[i], to[i]); break;
+			case CommandWriter.INC: simulation.upgrade(player, from[i]); break;
+			default:
+			}
+		}
+	}
+	
+}
+
+/**
+ * Optional search-based decision mode: compares the plan of the heuristics (AIManager) with perturbed variants of it
+ * by simulating each plan with random rollouts of both players over a short horizon, until the deadline of the round is reached.
+ * All plans are rolled out with the same random seeds, so their scores are compared on the same futures.
+ * The heuristic plan is kept if it could not be evaluated in time, if not enough alternatives were evaluated, or if no plan was better.
+ * 
+ * The plans are generated in batches of a fixed size by the calling thread and the batch is evaluated in parallel on a ForkJoinPool.
+ * Each thread evaluates on its own RolloutWorker and writes the score into the slot of the plan, so the plans and the result of a batch
+ * only depend on the seed, not on the amount of threads or their scheduling. Only the amount of batches evaluated until the deadline depends on the speed.
+ * The deadline is also checked before each evaluation, plans not evaluated in time are skipped.
+ */
+class RolloutSearch {
+	
+	// DEFAULT SETTINGS OF THE SEARCH OF EACH GAME (SET BY --search)
+	static boolean enabledByDefault = false;
+	static int defaultBudgetMillis = 40;
+	
+	static int firstRoundBudgetMillis = 500;
+	static int minPlans = 8; // fewer evaluated alternatives fall back to the heuristic plan
+	static int depth = 12; // the simulated turns of each rollout
+	static int rollouts = 4; // the rollouts per plan
+	static int productionWeight = 8; // the value of one production compared to one unit at the end of a rollout
+	static long initialSeed = 0x9E3779B97F4A7C15L; // the seed of the random generator of each search
+	
+	static ForkJoinPool pool = ForkJoinPool.commonPool();
+	static final int BATCH_SIZE = 16; // plans of each batch, independent of the amount of threads
+	
+	private static final int SKIPPED = Integer.MIN_VALUE; // the score of a plan not evaluated before the deadline
+	
+	private final GameState game;
+	private final ThreadLocal<RolloutWorker> workers = ThreadLocal.withInitial(RolloutWorker::new); // the arenas of this game, one per thread
+	boolean enabled; // the search improves the plans of this game
+	int budgetMillis; // the time of each round available for the AIManager and the search
+	private long deadline;
+	private long seed; // the state of the random generator
+	
+	private Simulation root; // the state of the current round, read-only during the evaluation
+	private final Plan heuristicPlan = new Plan();
+	private final Plan bestPlan = new Plan();
+	private Plan[] batch = new Plan[0];
+	private int[] scores = new int[0]; // [plan of the batch]: written by the thread evaluating the plan
+	private final long[] rolloutSeeds = new long[64];
+	
+	public RolloutSearch(GameState game) {
+		this.game = game;
+		this.enabled = enabledByDefault;
+		this.budgetMillis = defaultBudgetMillis;
+		this.seed = initialSeed;
+	}
+	
+	/**
+	 * Starts the timer of the round. Called before the heuristics run.
+	 */
+	void startRound() {
+		deadline = System.nanoTime() + (game.round == 0 ? firstRoundBudgetMillis : budgetMillis) * 1_000_000L;
+	}
+	
+	/**
+	 * Replaces the heuristic plan in the writer with the best plan found until the deadline.
+	 */
+	void improve(CommandWriter writer) {
+		if (root == null || root.cellCount != game.cellCount || root.horizon != game.store.horizon) {
+			root = Simulation.fromGameState(game);
+		} else {
+			root.load(game);
+		}
+		for (int i = 0; i < rollouts; i++) {
+			rolloutSeeds[i] = nextRandom();
+		}
+		if (batch.length != BATCH_SIZE) {
+			batch = new Plan[BATCH_SIZE];
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				batch[i] = new Plan();
+			}
+			scores = new int[BATCH_SIZE];
+		}
+		
+		heuristicPlan.readFrom(writer);
+		if (System.nanoTime() >= deadline) {
+			return; // no time left: the heuristic plan is used
+		}
+		int heuristicScore = workers.get().evaluate(heuristicPlan, this);
+		int bestScore = heuristicScore;
+		bestPlan.copyFrom(heuristicPlan);
+		
+		int plans = 0;
+		while (System.nanoTime() < deadline) {
+			// GENERATE THE PLANS OF THE BATCH
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Plan candidate = batch[i];
+				candidate.copyFrom((nextRandom() & 1) == 0 ? bestPlan : heuristicPlan);
+				int mutations = 1 + (int) (nextRandom() & 1);
+				for (int m = 0; m < mutations; m++) {
+					mutate(candidate);
+				}
+			}
+			
+			// EVALUATE THE BATCH IN PARALLEL AND TAKE THE BEST PLAN (THE FIRST ONE ON EQUAL SCORES)
+			pool.invoke(new EvaluationTask(this, 0, BATCH_SIZE));
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				if (scores[i] == SKIPPED) {
+					continue;
+				}
+				plans++;
+				if (scores[i] > bestScore) {
+					bestScore = scores[i];
+					bestPlan.copyFrom(batch[i]);
+				}
+			}
+		}
+		
+		if (plans < minPlans || bestScore <= heuristicScore) {
+			CommandManager.log("Search: %d plans, heuristic kept", plans);
+			return;
+		}
+		CommandManager.log("Search: %d plans, gain %d", plans, bestScore - heuristicScore);
+		bestPlan.writeTo(writer);
+	}
+	
+	/**
+	 * Evaluates a range of the batch, splitting it in halves so idle threads can steal one half.
+	 */
+	@SuppressWarnings("serial")
+	private static class EvaluationTask extends RecursiveAction {
+		
+		private final RolloutSearch search;
+		private final int from;
+		private final int to;
+		
+		EvaluationTask(RolloutSearch search, int from, int to) {
+			this.search = search;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= 2) {
+				RolloutWorker worker = search.workers.get();
+				for (int i = from; i < to; i++) {
+					boolean inTime = (System.nanoTime() < search.deadline);
+					search.scores[i] = (inTime ? worker.evaluate(search.batch[i], search) : SKIPPED);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new EvaluationTask(search, from, middle), new EvaluationTask(search, middle, to));
+			}
+		}
+	}
+	
+	/**
+	 * The arena of one thread for one game: the simulation the rollouts run on, copied from the root state for each rollout.
+	 */
+	private static class RolloutWorker {
+		
+		private Simulation simulation;
+		
+		/**
+		 * @return The sum of the scores of all rollouts of the plan.
+		 */
+		int evaluate(Plan plan, RolloutSearch search) {
+			Simulation root = search.root;
+			if (simulation == null || !simulation.isSameMap(root)) {
+				simulation = root.copy(); // only on the first evaluation of this game on this thread (or after a new map was loaded)
+			}
+			int score = 0;
+			for (int r = 0; r < rollouts; r++) {
+				simulation.copyFrom(root);
+				long random = search.rolloutSeeds[r];
+				plan.applyTo(simulation, 1);
+				random = search.playRandomly(simulation, -1, random);
+				simulation.endTurn();
+				for (int turn = 1; turn < depth; turn++) {
+					random = search.playRandomly(simulation, 1, random);
+					random = search.playRandomly(simulation, -1, random);
+					simulation.endTurn();
+				}
+				score += (simulation.getTotalUnits(1) - simulation.getTotalUnits(-1))
+					+ productionWeight * (simulation.getTotalProduction(1) - simulation.getTotalProduction(-1));
+			}
+			return score;
+		}
+	}
+	
+	/**
+	 * The rollout policy: each cell of the player sends half of its units to one of its closest cells not owned by the player from time to time.
+	 * @return The new state of the random generator.
+	 */
+	private long playRandomly(Simulation simulation, int player, long random) {
+		for (int cellID = 0; cellID < simulation.cellCount; cellID++) {
+			if (simulation.owner[cellID] != player || simulation.units[cellID] < 2) {
+				continue;
+			}
+			random = xorshift(random);
+			if ((random & 3) != 0) {
+				continue; // one out of four cells attacks each turn
+			}
+			int target = pickTarget(simulation, cellID, player, (int) ((random >>> 2) & 3));
+			if (target != -1) {
+				simulation.move(player, cellID, target, simulation.units[cellID]/2);
+			}
+		}
+		return random;
+	}
+	
+	/**
+	 * Changes the plan by one random step: removes an order, halves the units of a move, redirects a move,
+	 * adds an attack with all units of a friendly cell or adds an upgrade.
+	 */
+	private void mutate(Plan plan) {
+		long random = nextRandom();
+		int kind = (int) ((random & 0xFFFF) % 5);
+		random >>>= 16;
+		if (plan.size > 0 && kind <= 2) {
+			int order = (int) ((random & 0xFFFF) % plan.size);
+			random >>>= 16;
+			if (kind == 0) {
+				plan.remove(order);
+			} else if (plan.types[order] == CommandWriter.MOVE) {
+				if (kind == 1) {
+					plan.units[order] = Math.max(1, plan.units[order]/2);
+				} else {
+					int target = pickTarget(root, plan.from[order], 1, (int) (random & 3));
+					if (target != -1) {
+						plan.to[order] = target;
+					}
+				}
+			}
+			return;
+		}
+		
+		int cellID = pickFriendlyCell((int) (random & 0xFFFF));
+		random >>>= 16;
+		if (cellID == -1) {
+			return;
+		}
+		if (kind == 4 && root.units[cellID] >= 10 && root.production[cellID] < 3) {
+			plan.add(CommandWriter.INC, cellID, 0, 0);
+		} else if (root.units[cellID] > 0) {
+			int target = pickTarget(root, cellID, 1, (int) (random & 3));
+			if (target != -1) {
+				plan.add(CommandWriter.MOVE, cellID, target, root.units[cellID]);
+			}
+		}
+	}
+	
+	/**
+	 * @return The n-th closest cell (0 to 3, fewer if there are less) not owned by the player or -1 if there is none.
+	 */
+	private int pickTarget(Simulation simulation, int cellID, int player, int n) {
+		int found = -1;
+		int count = 0;
+		for (int neighborID : game.cells[cellID].neighbors) {
+			if (simulation.owner[neighborID] != player) {
+				found = neighborID;
+				if (count++ == n) {
+					break;
+				}
+			}
+		}
+		return found;
+	}
+	
+	private int pickFriendlyCell(int random) {
+		int count = game.friendlyCells.size();
+		if (count == 0) {
+			return -1;
+		}
+		int n = random % count;
+		int cellID = game.friendlyCells.first();
+		for (int i = 0; i < n; i++) {
+			cellID = game.friendlyCells.next(cellID+1);
+		}
+		return cellID;
+	}
+	
+	private long nextRandom() {
+		seed = xorshift(seed);
+		return seed >>> 1;
+	}
+	
+	private static long xorshift(long x) {
+		x ^= x << 13;
+		x ^= x >>> 7;
+		x ^= x << 17;
+		return x;
+	}
+	
+}
+
+/**
+ * Stores the state of all cells in arrays indexed by the cell ID, so loops over many cells run over contiguous memory.
+ * The incoming units of each cell are stored as one ring buffer of 'horizon' rounds within a single array for all cells.
+ * The units arriving in 'inRounds' rounds are stored in the slot (round + inRounds) % horizon, so advancing a round only clears one slot per cell.
+ */
+class CellStore {
+	
+	final int cellCount;
+	final int horizon; // the amount of rounds tracked for incoming units
+	
+	final int[] owner;
+	final int[] units;
+	final int[] production;
+	final int[] productionDisabled;
+	
+	final int[] incomingUnits; // [index(cellID, inRounds)]
+	final int[] incomingFriendlyUnits; // [index(cellID, inRounds)]
+	final int[] incomingEnemyUnits; // [index(cellID, inRounds)]
+	final int[] incomingTotalFriendlyUnits;
+	final int[] incomingTotalEnemyUnits;
+	
+	private int offset; // the slot of the current round: round % horizon
+	
+	public CellStore(int cellCount, int horizon) {
+		this.cellCount = cellCount;
+		this.horizon = horizon;
+		
+		this.owner = new int[cellCount];
+		this.units = new int[cellCount];
+		this.production = new int[cellCount];
+		this.productionDisabled = new int[cellCount];
+		
+		this.incomingUnits = new int[cellCount*horizon];
+		this.incomingFriendlyUnits = new int[cellCount*horizon];
+		this.incomingEnemyUnits = new int[cellCount*horizon];
+		this.incomingTotalFriendlyUnits = new int[cellCount];
+		this.incomingTotalEnemyUnits = new int[cellCount];
+		
+		this.offset = 0;
+	}
+	
+	/**
+	 * @param cellID The cell ID.
+	 * @param inRounds The amount of rounds until the units arrive (0 to horizon-1).
+	 * @return The index of the incoming units of the cell in the given amount of rounds.
+	 */
+	public int index(int cellID, int inRounds) {
+		int slot = offset + inRounds;
+		if (slot >= horizon) {
+			slot -= horizon;
+		}
+		return cellID*horizon + slot;
+	}
+	
+	/**
+	 * Moves the timelines of all cells one round ahead. Each cell has to clear the slot of the units arrived last round on its update.
+	 */
+	public void advanceRound() {
+		offset++;
+		if (offset == horizon) {
+			offset = 0;
+		}
+	}
+	
+}
+
+
+
+/**
+ * A view of a single cell. The owner, units, production and incoming units of all cells are stored in the CellStore of the game state.
+ */
+class Cell {
+
+    final GameState game; // the game this cell belongs to
+    int id;
+    
+    
+    int[] neighbors; // IDs of all other cells sorted from closest to farthest
+    
+    
+    ThreatStatus threatStatus;
+    
+    
+    public Cell(GameState game, int id, int owner, int units, int production) {
+        this.game = game;
+        this.id = id;
+        game.store.owner[id] = owner;
+        game.store.units[id] = units;
+        game.store.production[id] = production;
+        game.store.productionDisabled[id] = 0;
+        
+        this.threatStatus = ThreatStatus.SAFE;
+        
+        this.neighbors = game.findNeighbors(id);
+    }
+
+
+	public int owner() {
+		return game.store.owner[id];
+	}
+	
+	public int units() {
+		return game.store.units[id];
+	}
+	
+	public int production() {
+		return game.store.production[id];
+	}
+	
+	public int productionDisabled() {
+		return game.store.productionDisabled[id];
+	}
+	
+	/**
+	 * @param inRounds The amount of rounds until the units arrive.
+	 * @return The sum of all units arriving in the given amount of rounds (friendly units positive, enemy units negative).
+	 */
+	public int incomingUnits(int inRounds) {
+		return game.store.incomingUnits[game.store.index(id, inRounds)];
+	}
+	
+	public int incomingFriendlyUnits(int inRounds) {
+		return game.store.incomingFriendlyUnits[game.store.index(id, inRounds)];
+	}
+	
+	public int incomingEnemyUnits(int inRounds) {
+		return game.store.incomingEnemyUnits[game.store.index(id, inRounds)];
+	}
+	
+	public int incomingTotalFriendlyUnits() {
+		return game.store.incomingTotalFriendlyUnits[id];
+	}
+	
+	public int incomingTotalEnemyUnits() {
+		return game.store.incomingTotalEnemyUnits[id];
+	}
+
+
+	public void update(int owner, int units, int production, int productionDisabled) {
+        if (productionDisabled == 5) {
+        	game.reportBombImpact(this);
+        }
+        
+        CellStore store = game.store;
+        int previousOwner = store.owner[id];
+
+        store.owner[id] = owner;
+        store.units[id] = units;
+        store.productionDisabled[id] = productionDisabled;
+        if (productionDisabled == 0) {
+        	store.production[id] = production;
+        }
+        
+        if (previousOwner != owner) {
+        	game.ownershipChanged(this, previousOwner);
+        } else {
+        	game.partition.keyChanged(id); // production or units might have changed
+        }
         
-        // SIMULATE TROOPS MOVING CLOSER TO THIS CELL
-        incomingTotalEnemyUnits -= incomingEnemyUnits[0];
-        incomingTotalFriendlyUnits -= incomingFriendlyUnits[0];
-        for (int i = 0; i < incomingUnits.length-1; i++) {
-        	incomingUnits[i] = incomingUnits[i+1];
-        	incomingFriendlyUnits[i] = incomingFriendlyUnits[i+1];
-        	incomingEnemyUnits[i] = incomingEnemyUnits[i+1];
+        // SIMULATE TROOPS MOVING CLOSER TO THIS CELL: THE UNITS WHICH ARRIVED LAST ROUND ARE REMOVED,
+        // THEIR SLOT IS REUSED FOR THE UNITS ARRIVING IN 'horizon-1' ROUNDS
+        int arrived = store.index(id, store.horizon-1);
+        store.incomingTotalEnemyUnits[id] -= store.incomingEnemyUnits[arrived];
+        store.incomingTotalFriendlyUnits[id] -= store.incomingFriendlyUnits[arrived];
+        store.incomingUnits[arrived] = 0;
+        store.incomingFriendlyUnits[arrived] = 0;
+        store.incomingEnemyUnits[arrived] = 0;
+        
+        if (game.bombDanger.advance(id)) { // impact should have already occured
+        	game.frontRouting.cellChanged(id);
+        }
+    }
+
+    /**
+     * Adds an incoming unit troop.
+     * @param owner The player who owns the units of the troop (1 for friendly, -1 for hostile)
+     * @param units The amount of units in the troops.
+     * @param distance The distance in rounds until the troop arrives to this cell.
+     */
+    public void addIncomingUnits(int owner, int units, int distance) {
+        CellStore store = game.store;
+        int index = store.index(id, distance);
+        store.incomingUnits[index] += owner*units;
+        if (owner == 1) {
+            store.incomingTotalFriendlyUnits[id] += units;
+            store.incomingFriendlyUnits[index] += units;
+        } else {
+        	store.incomingTotalEnemyUnits[id] += units;
+            store.incomingEnemyUnits[index] += units;
+        }
+    }
+    
+    public boolean isBombImpactExpected() {
+    	return (game.bombDanger.get(id) != 0);
+    }
+    
+    public boolean isBombImpactExpectedNextRound() {
+    	return isBombImpactExpectedIn(1);
+    }
+    
+    public boolean isBombImpactExpectedIn(int rounds) {
+    	return (game.bombDanger.get(id) & BombDanger.mask(rounds, rounds)) != 0;
+    }
+    
+    public boolean isBombImpactExpectedInLessThan(int rounds) {
+    	return (game.bombDanger.get(id) & BombDanger.mask(0, rounds-1)) != 0;
+    }
+    
+    public boolean isBombImpactExpectedInMoreThan(int rounds) {
+    	return (game.bombDanger.get(id) & BombDanger.mask(rounds+1, 63)) != 0;
+    }
+    
+    public boolean isBombGoingToOverlapWithOtherBomb(Cell cell) {
+        int impact = game.getDistanceBetweenCells(cell, this) + 1;
+        return (game.bombDanger.get(id) & BombDanger.mask(impact-5, impact+5)) != 0;
+    }
+    
+    public boolean isTroopGoingToArriveOnBombImpact(Cell cell) {
+        int arrival = game.getDistanceBetweenCells(cell, this) + 1;
+        if ((game.bombDanger.get(id) & BombDanger.mask(arrival, arrival)) != 0) {
+            CommandManager.debug("Prevented %d to %d arrival in round %d", cell.id, this.id, game.round + arrival);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 
+     * @return Returns true if this cell got hit by a bomb and its production is disabled, false otherwise.
+     */
+    public boolean isHitByBomb() {
+    	return (productionDisabled() != 0);
+    }
+    
+    /**
+     * @param distance The distance to this cell.
+     * @return Returns true if this cell is about to be conquered by own units.
+     */
+    public boolean isAboutToBeConquered(int distance) {
+    	
+    	CellStore store = game.store;
+    	int owner = store.owner[id];
+    	if (owner == 1) {
+    		return true;
+    	}
+    	
+    	int units = store.units[id];
+    	for (int i = 1; i < store.horizon; i++) {
+    		int producedUnits;
+    		if (owner == 0) {
+    			producedUnits = 0;
+    		} else {
+    			producedUnits = (store.productionDisabled[id] > 0 ? 0 : store.production[id]);
+    		}
+    		int index = store.index(id, i);
+    		units += store.incomingEnemyUnits[index] - store.incomingFriendlyUnits[index] + producedUnits;
+    		if (units < 0) {
+    			return true;
+    		}
+    	}
+    	
+    	return false;
+    }
+    
+    
+    
+    public Cell findNearbySaveFriendlyCellToSendUnitsTo() { // TODO remove?
+    	for (int neighborID : neighbors) {
+    		if (game.store.owner[neighborID] == 1) { // TODO check if this cell is about to fall into enemy hands
+    			return game.getCellByID(neighborID);
+    		}
+    	}
+		return null;
+	}
+	
+	public Cell findSaveCellToEvacuateUnitsTo() {
+	    
+	    Cell saveCell = null;
+	    
+	    // SEND TO FRIENDLY CELL
+	    for (int neighborID : neighbors) {
+	        Cell cell = game.getCellByID(neighborID);
+	        if (cell.owner() == 1 && !cell.isBombImpactExpectedIn(game.getDistanceBetweenCells(this, cell)+1)) {
+	            saveCell = cell;
+	            break;
+	        }
+	    }
+	    
+	    // SEND TO NEUTRAL CELL
+	    if (saveCell == null) {
+	        for (int neighborID : neighbors) {
+    	        Cell cell = game.getCellByID(neighborID);
+    	        if (cell.owner() == 0 && this.units() > cell.units() && !cell.isBombImpactExpectedIn(game.getDistanceBetweenCells(this, cell)+1)) {
+    	            saveCell = cell;
+    	            break;
+    	        }
+	        }
+	    }
+	    
+	    // SEND TO ENEMY CELL
+	    if (saveCell == null) {
+	        for (int neighborID : neighbors) {
+    	        Cell cell = game.getCellByID(neighborID);
+    	        if (cell.owner() == -1 && this.units() > cell.units() && !cell.isBombImpactExpectedIn(game.getDistanceBetweenCells(this, cell)+1)) {
+    	            saveCell = cell;
+    	            break;
+    	        }
+	        }
+	    }
+	    
+	    // SEND TO RANDOM CELL
+	    if (saveCell == null) {
+	        int random = (int) (Math.random() * neighbors.length);
+	        saveCell = game.getCellByID(neighbors[random]);
+	    }
+	    
+	    return saveCell;
+	}
+    
+	
+	
+    /**
+     * @param owner The owner of the cell in question (1 for friendly, -1 for hostile, 0 for neutral).
+     * @return The distance to the closest other cell with the given owner or 21 if there is no such cell.
+     */
+    public int getDistanceToClosestCellWithOwner(int owner) {
+    	return game.nearest.getDistance(id, owner);
+    }
+    
+    /**
+     * @param owner The owner of the cell in question (1 for friendly, -1 for hostile, 0 for neutral).
+     * @return The closest other cell with the given owner or null if there is no such cell.
+     */
+    public Cell getClosestCellWithOwner(int owner) {
+    	int cellID = game.nearest.getCellID(id, owner);
+    	return (cellID == -1 ? null : game.getCellByID(cellID));
+    }
+    
+    
+    
+    public void determineThreat() {
+    	CellStore store = game.store;
+    	if (store.incomingTotalEnemyUnits[id] > 0) { // if enemy troops are traveling to this cell
+    		
+    		int units = store.units[id];
+    		int production = store.production[id];
+    		int productionDisabled = store.productionDisabled[id];
+    		int[] incomingFriendlyUnits = store.incomingFriendlyUnits;
+    		int[] incomingEnemyUnits = store.incomingEnemyUnits;
+    		
+    		int unitsWithSelfDefenseOnly = units;
+    		int unitsWithFriendlyUnitsHelp = units;
+
+    		boolean canDefendEachRoundWithBaseProductionAlone = true; // can defend by sending away remaining units. no threat
+    		boolean canDefendWithProductionBySavingUnits = true; // can defend by the units produced at this cell when stopped sending them away
+    		boolean canDefendWithProductionAndHelp = true; // can defend by the units produced and the current friendly troops coming in
+    		
+    		// THERE IS ALWAYS PRODUCED 'production' UNITS IN THE CELL
+        	for (int i = 1; i < store.horizon; i++) {
+        		
+        		int index = store.index(id, i);
+        		int producedUnits = ((productionDisabled-(i-1)) > 0 ? 0 : production);
+        		if (canDefendEachRoundWithBaseProductionAlone && incomingEnemyUnits[index] > (producedUnits+incomingFriendlyUnits[index])) {
+        			canDefendEachRoundWithBaseProductionAlone = false; // more enemy units are attacking than friendly units are being produced
+        		}
+
+        		unitsWithSelfDefenseOnly += producedUnits - incomingEnemyUnits[index];
+        		if (canDefendWithProductionBySavingUnits && unitsWithSelfDefenseOnly < 0) {
+        			canDefendWithProductionBySavingUnits = false;
+        		}
+
+        		unitsWithFriendlyUnitsHelp += producedUnits - incomingEnemyUnits[index] + incomingFriendlyUnits[index];
+        		if (canDefendWithProductionAndHelp && unitsWithFriendlyUnitsHelp < 0) {
+        			canDefendWithProductionAndHelp = false;
+        		}
+        	}
+        	
+        	// choose the most effective defense measure required to keep the cell under control
+        	if (canDefendEachRoundWithBaseProductionAlone) {
+        		threatStatus = ThreatStatus.SAFE; // cell can defend itself each round via its own produced units because each enemy troop has less or equal amount of units (action: nothing, but there might not be any units left to send away, because they got killed by the enemy troop)
+        	} else if (canDefendWithProductionBySavingUnits) {
+        		threatStatus = ThreatStatus.DEFEND_BY_SAVING_UNITS; // cell can defend itself by saving the produced units across rounds (action: save units)
+        	} else if (canDefendWithProductionAndHelp) {
+        		threatStatus = ThreatStatus.DEFEND_BY_INCOMING_UNITS; // cell can be defended by it saving the produced units across rounds plus the units send by friendly cells (action: save units)
+        	} else {
+        		threatStatus = ThreatStatus.BEING_CONQUERED; // cell will be conquered by enemy (action: try to defend it by sending units from other friendly cell)
+        	}
+    	} else {
+        	threatStatus = ThreatStatus.SAFE;
+    	}
+	}
+    
+    public int[] getRequiredUnitAmount() {
+    	
+    	CellStore store = game.store;
+    	int production = store.production[id];
+    	
+    	int[] remainingUnits = new int[store.horizon];
+    	remainingUnits[0] = store.units[id];
+    	
+
+    	int[] requiredUnits = new int[store.horizon];
+    	requiredUnits[0] = 0;
+    	int sendUnits = 0;
+    	
+    	for (int i = 1; i < store.horizon; i++) {
+    		// calculate own remaining stationary units
+    		int index = store.index(id, i);
+    		remainingUnits[i] = remainingUnits[i-1] + production + store.incomingFriendlyUnits[index] - store.incomingEnemyUnits[index];
+    		
+    		if (remainingUnits[i]+sendUnits >= 0) { // if friendly units are present then dont request units
+            	requiredUnits[i] = 0;
+    		} else { // if not enough friendly units are present to defend
+    			requiredUnits[i] = -(remainingUnits[i]+sendUnits);
+    			sendUnits += requiredUnits[i];
+    		}
+    	}
+    	
+    	return requiredUnits;
+    }
+    
+    public int getUnitsRequiredToSaveThisRoundToDefendSuccessfully() {
+
+    	CellStore store = game.store;
+    	int production = store.production[id];
+    	
+    	int requiredUnits = 0;
+    	for (int i = store.horizon-1; i > 0; i--) {
+    		int index = store.index(id, i);
+    		int availableUnits = production + store.incomingFriendlyUnits[index] - store.incomingEnemyUnits[index];
+			//CommandManager.log("" + id + " " + i + " " + availableUnits + " " + requiredUnits + " " + Math.max(0, (requiredUnits-availableUnits)));
+			requiredUnits = Math.max(0, (requiredUnits-availableUnits));
+    	}
+    	
+    	return requiredUnits;
+    }
+    
+    public int[] getUnitsRequiredFromFriendlyCells() {
+    	return null; // TODO
+    }
+    
+}
+
+
+
+
+
+/**
+ * Helps to create and organize commands for each turn.
+ */
+class CommandManager {
+	
+	private final GameState game;
+	private final RolloutSearch search;
+	private long time;
+	final CommandWriter writer;
+	CommandBuffer buffer; // the commands of the current and the upcoming rounds
+    
+    public CommandManager(GameState game, RolloutSearch search, OutputStream out) {
+    	this.game = game;
+    	this.search = search;
+    	this.time = System.currentTimeMillis();
+    	this.writer = new CommandWriter(out);
+    }
+    
+    /**
+     * Prepares the commands of the game. Called once the game is loaded.
+     */
+    void startGame() {
+    	buffer = new CommandBuffer(game, game.store.horizon);
+    }
+
+    /**
+     * Flushes the commands and executes them for the current round. Ends the round.
+     */
+    void executeCommands() {
+        buffer.execute(writer);
+        if (search.enabled) {
+        	search.improve(writer);
         }
-        incomingUnits[incomingUnits.length-1] = 0;
-        incomingFriendlyUnits[incomingFriendlyUnits.length-1] = 0;
-        incomingEnemyUnits[incomingEnemyUnits.length-1] = 0;
         
-        bombImpacts.removeIf(bombImpact -> bombImpact.predictedImpact < GameState.round); // impact should have already occured
+        writer.message().append(System.currentTimeMillis()-time).append("ms - ")
+        	.append(game.ownTotalUnits).append("/").append(game.enemyTotalUnits).append(" - ")
+        	.append(game.ownTotalProduction).append("/").append(game.enemyTotalProduction);
+        time = System.currentTimeMillis();
+        
+        writer.flush();
+        
+        // WRITE THE DEBUG MESSAGES OF THIS ROUND AFTER THE COMMANDS ARE SEND
+        Log.flush();
+    }
+
+
+	/**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important.
+     * @param inRounds The delay in rounds until this command is executed.
+     */
+    void standardAttack(int from, int to, int units, int inRounds) {
+    	buffer.add(inRounds, CommandBuffer.STANDARD_ATTACK, from, to, units);
+    }
+    
+    /**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important. 
+     */
+    void standardAttack(int from, int to, int units) {
+    	standardAttack(from, to, units, 0);
+    }
+    
+    /**
+     * Saves units to help defend the cell.
+     * @param cellID The cell ID where the units should be saved.
+     * @param units The amount of units saved.
+     */
+    void saveUnitsForDefense(int cellID, int units) {
+    	buffer.add(0, CommandBuffer.SAVE_UNITS_FOR_DEFENSE, cellID, -1, units);
+    }
+    
+    void sendUnitsForDefense(int from, int to, int units) {
+    	buffer.add(0, CommandBuffer.DEFEND_CELL_BY_SENDING_UNITS, from, to, units);
+    }
+    
+    /**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important.
+     * @param inRounds The delay in rounds until this command is executed.
+     */
+    void specialAttack(int from, int to, int units, int inRounds) {
+    	buffer.add(inRounds, CommandBuffer.SPECIAL_ATTACK, from, to, units);
+    }
+    
+    /**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important. 
+     */
+    void specialAttack(int from, int to, int units) {
+    	specialAttack(from, to, units, 0);
+    }
+    
+    /**
+     * Save units for a special attack.
+     * @param cellID The cell ID where units should be saved
+     * @param units The amount of units saved.
+     */
+    public void saveUnitsForSpecialAttack(int cellID, int units) {
+    	buffer.add(0, CommandBuffer.SAVE_UNITS_FOR_SPECIAL_ATTACK, cellID, -1, units);
+	}
+    
+    /**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important.
+     * @param inRounds The delay in rounds until this command is executed.
+     */
+    void neutralAttack(int from, int to, int units, int inRounds) {
+    	buffer.add(inRounds, CommandBuffer.NEUTRAL_ATTACK, from, to, units);
+    }
+    
+    /**
+     * Sends units from one cell to another.
+     * @param from The cell ID from where the units are send.
+     * @param to The cell ID to where the units are send
+     * @param units The amount of units send.
+     * @param priority The priority of this command. The higher, the more important. 
+     */
+    void neutralAttack(int from, int to, int units) {
+    	neutralAttack(from, to, units, 0);
+    }
+    
+    /**
+     * Sends a bomb from one cell to another.
+     * @param from The cell ID from where the bomb is send.
+     * @param to The cell ID to where the bomb is send.
+     * @param priority The priority of this command. The higher, the more important.
+     * @param inRounds The delay in rounds until this command is executed.
+     */
+    void sendBomb(int from, int to, int inRounds) {
+    	buffer.add(inRounds, CommandBuffer.BOMB_ATTACK, from, to, 0);
+    }
+
+    /**
+     * Sends a bomb from one cell to another.
+     * @param from The cell ID from where the bomb is send.
+     * @param to The cell ID to where the bomb is send.
+     * @param priority The priority of this command. The higher, the more important. 
+     */
+    void sendBomb(int from, int to) {
+    	sendBomb(from, to, 0);
+    }
+
+    /**
+     * Upgrade the production of a cell.
+     * @param cellID The id of the cell to upgrade the productivity.
+     * @param inRounds The delay in rounds until the command is executed.
+     */
+    void increaseProductivity(int cellID, int inRounds) {
+    	buffer.add(inRounds, CommandBuffer.UPGRADE_CELL, cellID, -1, 0);
+    }
+    
+    /**
+     * Upgrade the production of a cell.
+     * @param cellID The id of the cell to upgrade the productivity.
+     */
+    void increaseProductivity(int cellID) {
+    	increaseProductivity(cellID, 0);
+    }
+    
+    /**
+     * Makes sure that all units are evacuate.
+     * @param cellID The id of the cell to evacuate.
+     */
+    void evacuateUnits(int cellID) {
+    	buffer.add(0, CommandBuffer.EVACUATE_UNITS, cellID, -1, 0);
+    }
+    
+    /**
+     * Prints a debug message in the console.
+     * The message is formatted and printed after the commands of the current round are send.
+     * @param format The debug message. Each '%d' is replaced by the next number, '%s' by the object.
+     */
+    static void log(String format) {
+    	Log.log(Log.INFO, format, 0, 0, 0, null);
+    }
+    
+    static void log(String format, int arg1) {
+    	Log.log(Log.INFO, format, arg1, 0, 0, null);
+    }
+    
+    static void log(String format, int arg1, int arg2) {
+    	Log.log(Log.INFO, format, arg1, arg2, 0, null);
+    }
+    
+    static void log(String format, int arg1, Object object) {
+    	Log.log(Log.INFO, format, arg1, 0, 0, object);
+    }
+    
+    /**
+     * Prints a detailed debug message in the console, which is only printed if the log level is set to DEBUG.
+     * @param format The debug message. Each '%d' is replaced by the next number.
+     */
+    static void debug(String format, int arg1, int arg2, int arg3) {
+    	Log.log(Log.DEBUG, format, arg1, arg2, arg3, null);
     }
+}
+
+/**
+ * Stores the commands of the current and the upcoming rounds as packed 64-bit words, one array per round in a ring of 'horizon' rounds.
+ * A word holds the cell sending the command, the type, the order in which it was added, the target cell and the units:
+ *   bits 52-61: from, 48-51: type, 36-47: sequence, 24-34: to+1, 0-23: units (signed)
+ * The two highest bits stay 0, so the words sort as positive numbers. Maps are limited to MAX_CELLS cells.
+ * The type is the priority of the command, so sorting the words of a round groups them by cell and orders them by priority.
+ * Adding a new kind of command only requires a new type and its handling in 'resolve'.
+ */
+class CommandBuffer {
+	
+	// COMMAND TYPES ORDERED BY PRIORITY (THE CELL UNITS ARE SPENT IN THIS ORDER)
+	static final int BOMB_ATTACK = 0;
+	static final int SPECIAL_ATTACK = 1;
+	static final int SAVE_UNITS_FOR_SPECIAL_ATTACK = 2;
+	static final int DEFEND_CELL_BY_SENDING_UNITS = 3;
+	static final int SAVE_UNITS_FOR_DEFENSE = 4;
+	static final int UPGRADE_CELL = 5;
+	static final int NEUTRAL_ATTACK = 6;
+	static final int STANDARD_ATTACK = 7;
+	static final int EVACUATE_UNITS = 8;
+	
+	static final int MAX_CELLS = 1024; // the cells that fit into the 10 bits of 'from' (and the 11 bits of 'to+1')
+	
+	private static final long KEY_MASK = 0x3FFFL << 48; // from and type
+	
+	private final GameState game;
+	private final long[][] words; // [slot][i]: the commands of the round
+	private final int[] counts; // [slot]: the amount of commands of the round
+	private int offset; // the slot of the current round
+	
+	public CommandBuffer(GameState game, int horizon) {
+		if (game.cellCount > MAX_CELLS) {
+			throw new IllegalArgumentException("cellCount: " + game.cellCount + " (at most " + MAX_CELLS + ")");
+		}
+		this.game = game;
+		this.words = new long[horizon][16];
+		this.counts = new int[horizon];
+		this.offset = 0;
+	}
+	
+	/**
+	 * Adds a command. Bombs and neutral attacks are collected, any other command replaces the one of the same type of the cell in that round.
+	 * @param inRounds The delay in rounds until the command is executed (0 to horizon-1).
+	 */
+	public void add(int inRounds, int type, int from, int to, int units) {
+		int slot = slot(inRounds);
+		long[] round = words[slot];
+		int count = counts[slot];
+		
+		long word = ((long) from << 52) | ((long) type << 48) | ((long) (count & 0xFFF) << 36) | ((long) (to+1) << 24) | (units & 0xFFFFFFL);
+		if (type != BOMB_ATTACK && type != NEUTRAL_ATTACK) {
+			for (int i = 0; i < count; i++) {
+				if ((round[i] & KEY_MASK) == (word & KEY_MASK)) {
+					round[i] = word;
+					return;
+				}
+			}
+		}
+		if (count == round.length) {
+			round = words[slot] = Arrays.copyOf(round, count*2);
+		}
+		round[count] = word;
+		counts[slot] = count+1;
+	}
+	
+	/**
+	 * @return Returns true if the cell has a command of the type in the given amount of rounds.
+	 */
+	public boolean isScheduled(int inRounds, int cellID, int type) {
+		int slot = slot(inRounds);
+		long key = ((long) cellID << 52) | ((long) type << 48);
+		for (int i = 0; i < counts[slot]; i++) {
+			if ((words[slot][i] & KEY_MASK) == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Writes the commands of the current round of all friendly cells and moves on to the next round.
+	 */
+	public void execute(CommandWriter writer) {
+		long[] round = words[offset];
+		int count = counts[offset];
+		Arrays.sort(round, 0, count);
+		
+		int start = 0;
+		while (start < count) {
+			int cellID = from(round[start]);
+			int end = start;
+			boolean evacuate = false;
+			while (end < count && from(round[end]) == cellID) {
+				evacuate |= (type(round[end]) == EVACUATE_UNITS);
+				end++;
+			}
+			if (game.getCellByID(cellID).owner() == 1) { // commands of lost cells are dropped
+				resolve(writer, cellID, round, start, end, evacuate);
+			}
+			start = end;
+		}
+		
+		counts[offset] = 0;
+		offset++;
+		if (offset == counts.length) {
+			offset = 0;
+		}
+	}
+	
+	/**
+	 * Spends the units available in the cell on its commands in the order of their priority.
+	 */
+	private void resolve(CommandWriter writer, int cellID, long[] round, int start, int end, boolean evacuate) {
+		int remainingUnits = game.getCellByID(cellID).units();
+		int standardAttackTarget = -1;
+		
+		for (int i = start; i < end; i++) {
+			long word = round[i];
+			int type = type(word);
+			int to = to(word);
+			int units = units(word);
+			
+			if (type == BOMB_ATTACK) {
+				writer.bomb(cellID, to); // does not require units
+				continue;
+			}
+			if (remainingUnits <= 0) {
+				return;
+			}
+			
+			switch (type) {
+			case SPECIAL_ATTACK:
+			case DEFEND_CELL_BY_SENDING_UNITS:
+			case NEUTRAL_ATTACK:
+				writer.move(cellID, to, Math.min(units, remainingUnits));
+				remainingUnits -= units;
+				break;
+			case SAVE_UNITS_FOR_SPECIAL_ATTACK:
+			case SAVE_UNITS_FOR_DEFENSE:
+				if (!evacuate) {
+					remainingUnits -= units; // saving units does not require a command
+				}
+				break;
+			case UPGRADE_CELL:
+				if (!evacuate) {
+					if (remainingUnits < 10) {
+						return;
+					}
+					writer.upgrade(cellID);
+					remainingUnits -= 10;
+				}
+				break;
+			case STANDARD_ATTACK:
+				writer.move(cellID, to, Math.min(units, remainingUnits));
+				remainingUnits -= units;
+				standardAttackTarget = to;
+				break;
+			case EVACUATE_UNITS:
+				if (standardAttackTarget == -1) {
+					standardAttackTarget = game.getCellByID(cellID).findSaveCellToEvacuateUnitsTo().id;
+				}
+				writer.move(cellID, standardAttackTarget, remainingUnits);
+				break;
+			}
+		}
+	}
+	
+	private int slot(int inRounds) {
+		if (inRounds < 0 || inRounds >= counts.length) {
+			throw new IndexOutOfBoundsException("inRounds: " + inRounds);
+		}
+		int slot = offset + inRounds;
+		if (slot >= counts.length) {
+			slot -= counts.length;
+		}
+		return slot;
+	}
+	
+	private static int from(long word) {
+		return (int) (word >>> 52) & 0x3FF;
+	}
+	
+	private static int type(long word) {
+		return (int) (word >>> 48) & 0xF;
+	}
+	
+	private static int to(long word) {
+		return ((int) (word >>> 24) & 0x7FF) - 1;
+	}
+	
+	private static int units(long word) {
+		return (int) (word << 40 >> 40);
+	}
+	
+}
+
+
+
+/**
+ * Collects the commands of a round and writes them as one line into a single reused byte buffer.
+ * MOVE commands sharing the same source and destination cell are merged into one command.
+ */
+class CommandWriter {
+	
+	static final int MOVE = 0;
+	static final int BOMB = 1;
+	static final int INC = 2;
+	
+	private final OutputStream out;
+	
+	// COMMANDS OF THE CURRENT ROUND (TYPE, ARG1, ARG2, ARG3)
+	private int[] types;
+	private int[] args1;
+	private int[] args2;
+	private int[] args3;
+	private int commandCount;
+	private int sentCount; // the commands of the last flush, kept until the next command is added
+	
+	private byte[] message; // text of the MSG command
+	private int messageLength;
+	
+	private byte[] buffer;
+	private int length;
+	
+	public CommandWriter(OutputStream out) {
+		this.out = out;
+		this.types = new int[64];
+		this.args1 = new int[64];
+		this.args2 = new int[64];
+		this.args3 = new int[64];
+		this.commandCount = 0;
+		this.message = new byte[64];
+		this.messageLength = 0;
+		this.buffer = new byte[1024];
+		this.length = 0;
+	}
+	
+	/**
+	 * Adds a MOVE command. If units are already moved between the same cells this round, the units are added to that command instead.
+	 * @param from The cell ID from where the units are send.
+	 * @param to The cell ID to where the units are send.
+	 * @param units The amount of units send.
+	 */
+	public void move(int from, int to, int units) {
+		if (units <= 0) {
+			return;
+		}
+		for (int i = 0; i < commandCount; i++) {
+			if (types[i] == MOVE && args1[i] == from && args2[i] == to) {
+				args3[i] += units;
+				return;
+			}
+		}
+		add(MOVE, from, to, units);
+	}
+	
+	/**
+	 * Adds a BOMB command.
+	 * @param from The cell ID from where the bomb is send.
+	 * @param to The cell ID to where the bomb is send.
+	 */
+	public void bomb(int from, int to) {
+		add(BOMB, from, to, 0);
+	}
+	
+	/**
+	 * Adds an INC command.
+	 * @param cellID The id of the cell to upgrade the productivity.
+	 */
+	public void upgrade(int cellID) {
+		add(INC, cellID, 0, 0);
+	}
+	
+	public int getCommandCount() {
+		return commandCount;
+	}
+	
+	/**
+	 * @return The amount of commands send by the last flush. Those are read with the getters until the next command is added.
+	 */
+	public int getSentCount() {
+		return sentCount;
+	}
+	
+	/**
+	 * @return The type of the command (MOVE, BOMB or INC).
+	 */
+	public int getType(int command) {
+		return types[command];
+	}
+	
+	/**
+	 * @return The source cell of the command (the upgraded cell for INC).
+	 */
+	public int getFrom(int command) {
+		return args1[command];
+	}
+	
+	public int getTo(int command) {
+		return args2[command];
+	}
+	
+	public int getUnits(int command) {
+		return args3[command];
+	}
+	
+	/**
+	 * Removes all commands of the current round, the message is kept.
+	 */
+	public void clearCommands() {
+		commandCount = 0;
+	}
+	
+	/**
+	 * Starts the text of the MSG command. The text is appended via the append methods.
+	 * @return This writer.
+	 */
+	public CommandWriter message() {
+		messageLength = 0;
+		return this;
+	}
+	
+	public CommandWriter append(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (messageLength == message.length) {
+				message = Arrays.copyOf(message, message.length*2);
+			}
+			message[messageLength++] = (byte) text.charAt(i);
+		}
+		return this;
+	}
+	
+	public CommandWriter append(long value) {
+		if (messageLength+20 > message.length) {
+			message = Arrays.copyOf(message, message.length*2);
+		}
+		messageLength = writeNumber(message, messageLength, value);
+		return this;
+	}
+	
+	/**
+	 * Writes all commands of the current round as one line to the output and clears them for the next round.
+	 * Without an output the commands are only cleared, as those are read directly by the local referee.
+	 */
+	public void flush() {
+		if (out != null) {
+			write();
+		}
+		sentCount = commandCount;
+		commandCount = 0;
+		messageLength = 0;
+	}
+	
+	private void write() {
+		length = 0;
+		for (int i = 0; i < commandCount; i++) {
+			switch (types[i]) {
+			case MOVE:
+				writeAscii("MOVE ");
+				writeNumber(args1[i]);
+				writeByte(' ');
+				writeNumber(args2[i]);
+				writeByte(' ');
+				writeNumber(args3[i]);
+				break;
+			case BOMB:
+				writeAscii("BOMB ");
+				writeNumber(args1[i]);
+				writeByte(' ');
+				writeNumber(args2[i]);
+				break;
+			case INC:
+				writeAscii("INC ");
+				writeNumber(args1[i]);
+				break;
+			default:
+			}
+			writeByte(';');
+		}
+		if (messageLength > 0) {
+			writeAscii("MSG ");
+			ensureCapacity(messageLength+1);
+			System.arraycopy(message, 0, buffer, length, messageLength);
+			length += messageLength;
+			writeByte(';');
+		}
+		if (length == 0) {
+			writeAscii("WAIT");
+		}
+		writeByte('\n');
+		
+		try {
+			out.write(buffer, 0, length);
+			out.flush();
+		} catch (IOException e) {
+			// nothing to do: the referee is gone
+		}
+	}
+	
+	private void add(int type, int arg1, int arg2, int arg3) {
+		if (commandCount == types.length) {
+			types = Arrays.copyOf(types, commandCount*2);
+			args1 = Arrays.copyOf(args1, commandCount*2);
+			args2 = Arrays.copyOf(args2, commandCount*2);
+			args3 = Arrays.copyOf(args3, commandCount*2);
+		}
+		types[commandCount] = type;
+		args1[commandCount] = arg1;
+		args2[commandCount] = arg2;
+		args3[commandCount] = arg3;
+		commandCount++;
+	}
+	
+	private void ensureCapacity(int additionalBytes) {
+		if (length+additionalBytes > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2, length+additionalBytes));
+		}
+	}
+	
+	private void writeByte(char c) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) c;
+	}
+	
+	private void writeAscii(String text) {
+		ensureCapacity(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buffer[length++] = (byte) text.charAt(i);
+		}
+	}
+	
+	private void writeNumber(long value) {
+		ensureCapacity(20);
+		length = writeNumber(buffer, length, value);
+	}
+	
+	/**
+	 * Encodes the number as ASCII digits into the array.
+	 * @return The position after the last written digit.
+	 */
+	private static int writeNumber(byte[] array, int position, long value) {
+		if (value < 0) {
+			array[position++] = '-';
+			value = -value;
+		}
+		if (value == 0) {
+			array[position++] = '0';
+			return position;
+		}
+		int end = position;
+		for (long v = value; v > 0; v /= 10) {
+			end++;
+		}
+		for (int i = end-1; i >= position; i--) {
+			array[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		return end;
+	}
+	
+}
+
+
+
+/**
+ * Collects debug messages in a preallocated ring buffer without formatting them.
+ * A background thread formats and prints them to the error stream once the commands of the round are send,
+ * so printing never delays the decision of the current round. Messages below the log level are ignored right away.
+ */
+class Log {
+	
+	static final int DEBUG = 0;
+	static final int INFO = 1;
+	static final int OFF = 2;
+	
+	static int level = INFO;
+	
+	private static final int CAPACITY = 1024; // power of two
+	
+	// RING BUFFER ENTRIES
+	private static final String[] formats = new String[CAPACITY];
+	private static final int[] numbers = new int[CAPACITY*3];
+	private static final Object[] objects = new Object[CAPACITY];
+	
+	private static volatile long head = 0; // next entry written by the game thread
+	private static volatile long tail = 0; // next entry printed by the printer thread
+	private static volatile int dropped = 0; // messages lost because the ring buffer was full (only written by the game thread)
+	
+	private static Thread printer = null;
+	
+	public static boolean isEnabled(int messageLevel) {
+		return messageLevel >= level;
+	}
+	
+	/**
+	 * Stores a debug message to be printed after the current round.
+	 * @param messageLevel The level of the message.
+	 * @param format The message. Each '%d' is replaced by the next number, '%s' by the object.
+	 */
+	public static void log(int messageLevel, String format, int arg1, int arg2, int arg3, Object object) {
+		if (messageLevel < level) {
+			return;
+		}
+		
+		long h = head;
+		if (h - tail >= CAPACITY) {
+			dropped++;
+			return;
+		}
+		
+		int slot = (int) (h & (CAPACITY-1));
+		formats[slot] = format;
+		numbers[slot*3] = arg1;
+		numbers[slot*3+1] = arg2;
+		numbers[slot*3+2] = arg3;
+		objects[slot] = object;
+		head = h+1; // publishes the entry to the printer thread
+	}
+	
+	/**
+	 * Wakes up the printer thread to print all messages stored so far.
+	 */
+	public static void flush() {
+		if (head == tail) {
+			return;
+		}
+		if (printer == null) {
+			printer = new Thread(Log::print, "log-printer");
+			printer.setDaemon(true);
+			printer.start();
+		} else {
+			LockSupport.unpark(printer);
+		}
+	}
+	
+	private static void print() {
+		PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), false);
+		StringBuilder sb = new StringBuilder(256);
+		int reportedDropped = 0;
+		
+		while (true) {
+			long h = head;
+			for (long t = tail; t < h; t++) {
+				int slot = (int) (t & (CAPACITY-1));
+				sb.setLength(0);
+				format(sb, formats[slot], slot);
+				err.println(sb);
+				formats[slot] = null;
+				objects[slot] = null;
+				tail = t+1;
+			}
+			int lost = dropped;
+			if (lost != reportedDropped) {
+				err.println("Log: " + (lost-reportedDropped) + " messages dropped");
+				reportedDropped = lost;
+			}
+			err.flush();
+			
+			if (head == tail) {
+				LockSupport.park();
+			}
+		}
+	}
+	
+	private static void format(StringBuilder sb, String format, int slot) {
+		int number = 0;
+		for (int i = 0; i < format.length(); i++) {
+			char c = format.charAt(i);
+			if (c == '%' && i+1 < format.length()) {
+				char placeholder = format.charAt(i+1);
+				if (placeholder == 'd' && number < 3) {
+					sb.append(numbers[slot*3+number++]);
+					i++;
+					continue;
+				} else if (placeholder == 's') {
+					sb.append(objects[slot]);
+					i++;
+					continue;
+				}
+			}
+			sb.append(c);
+		}
+	}
+	
+}
+
+
+
+/**
+ * The tokens of the game input as read by the game state: numbers and entity types (InputReader.FACTORY, TROOP or BOMB).
+ */
+interface GameInput {
+	
+	/**
+	 * @return Returns true if another token is available, blocking until it arrives or the input ends.
+	 */
+	boolean hasNext();
+	
+	int nextInt();
+	
+	byte nextEntityType();
+	
+}
+
+/**
+ * Reads the game input token by token directly from the raw bytes of the input stream.
+ * Numbers are decoded in place and entity types are told apart by their first byte, so no Strings are created while parsing.
+ */
+class InputReader implements GameInput {
+	
+	static final byte FACTORY = 'F';
+	static final byte TROOP = 'T';
+	static final byte BOMB = 'B';
+	
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int length;
+	
+	public InputReader(InputStream in) {
+		this.in = in;
+		this.buffer = new byte[1 << 16];
+		this.position = 0;
+		this.length = 0;
+	}
+	
+	/**
+	 * @return Returns the next byte of the input or -1 if the end of the input is reached.
+	 */
+	private int read() {
+		if (position == length) {
+			try {
+				length = in.read(buffer, 0, buffer.length);
+			} catch (IOException e) {
+				length = -1;
+			}
+			position = 0;
+			if (length <= 0) {
+				length = 0;
+				return -1;
+			}
+		}
+		return buffer[position++];
+	}
+	
+	/**
+	 * @return Returns the first byte of the next token, skipping any leading whitespace.
+	 */
+	private int skipWhitespace() {
+		int b = read();
+		while (b != -1 && b <= ' ') {
+			b = read();
+		}
+		if (b == -1) {
+			throw new NoSuchElementException("End of input reached");
+		}
+		return b;
+	}
+	
+	/**
+	 * @return Returns true if another token is available, blocking until it arrives or the input ends.
+	 */
+	public boolean hasNext() {
+		int b = read();
+		while (b != -1 && b <= ' ') {
+			b = read();
+		}
+		if (b == -1) {
+			return false;
+		}
+		position--; // the token starts with this byte
+		return true;
+	}
+	
+	/**
+	 * Reads the next token as an integer.
+	 * @return The decoded integer.
+	 */
+	public int nextInt() {
+		int b = skipWhitespace();
+		boolean negative = (b == '-');
+		if (negative) {
+			b = read();
+		}
+		int value = 0;
+		while (b >= '0' && b <= '9') {
+			value = value*10 + (b - '0');
+			b = read();
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Reads the next token as an entity type and skips the remaining bytes of the token.
+	 * @return The first byte of the entity type (FACTORY, TROOP or BOMB).
+	 */
+	public byte nextEntityType() {
+		int type = skipWhitespace();
+		int b = read();
+		while (b > ' ') {
+			b = read();
+		}
+		return (byte) type;
+	}
+	
+}
+
+
+
+/**
+ * Records the input of a game into a compact binary log, which can be replayed later on by the Replay driver.
+ * Each number is stored as zigzag varint. The log consists of the link block read at the start of the game followed by one record per frame:
+ * GAME cellCount linkCount (cell1 cell2 distance)*
+ * FRAME entityCount (entityID entityType arg1 arg2 arg3 arg4 arg5)*
+ */
+class FrameRecorder {
+	
+	static final int GAME = 1;
+	static final int FRAME = 2;
+	
+	static final int FACTORY = 0;
+	static final int TROOP = 1;
+	static final int BOMB = 2;
+	
+	private final OutputStream out;
+	
+	public FrameRecorder(OutputStream out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Creates a recorder writing into the given file.
+	 * @return The recorder or null if the file can not be created.
+	 */
+	public static FrameRecorder open(String fileName) {
+		try {
+			return new FrameRecorder(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		} catch (IOException e) {
+			CommandManager.log("Recording disabled: %s", 0, e.getMessage());
+			return null;
+		}
+	}
+	
+	public void startGame(int cellCount, int linkCount) {
+		write(GAME);
+		write(cellCount);
+		write(linkCount);
+	}
+	
+	public void link(int cell1, int cell2, int distance) {
+		write(cell1);
+		write(cell2);
+		write(distance);
+	}
+	
+	public void startFrame(int entityCount) {
+		write(FRAME);
+		write(entityCount);
+	}
+	
+	public void entity(int entityID, byte entityType, int[] args) {
+		write(entityID);
+		if (entityType == InputReader.FACTORY) {
+			write(FACTORY);
+		} else if (entityType == InputReader.TROOP) {
+			write(TROOP);
+		} else {
+			write(BOMB);
+		}
+		for (int i = 0; i < 5; i++) {
+			write(args[i]);
+		}
+	}
+	
+	/**
+	 * Writes the recorded frame to the file, so the log is complete even if the game is aborted.
+	 */
+	public void endFrame() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			// nothing to do: the following frames are lost
+		}
+	}
+	
+	private void write(int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		try {
+			while ((zigzag & ~0x7F) != 0) {
+				out.write((zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			out.write(zigzag);
+		} catch (IOException e) {
+			// nothing to do: the frame is lost
+		}
+	}
+	
+	/**
+	 * Reads the next zigzag varint from the input.
+	 * @return The decoded number.
+	 */
+	static int read(DataInputStream in) throws IOException {
+		int zigzag = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			zigzag |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+	
+}
+
+
+
+/**
+ * Replays games recorded by the FrameRecorder through the game state, the AI and the command manager as fast as possible
+ * and reports the latency of each round and the throughput of each game.
+ * Usage: Player --replay [-v] file...
+ */
+class Replay {
+	
+	private static final String[] ENTITY_TYPES = { "FACTORY", "TROOP", "BOMB" };
+	
+	public static void run(String[] args) {
+		boolean verbose = false;
+		long totalRounds = 0;
+		long totalNanos = 0;
+		
+		Log.level = Log.OFF;
+		
+		for (String fileName : args) {
+			if (fileName.equals("-v")) {
+				verbose = true;
+				continue;
+			}
+			
+			byte[] input;
+			try {
+				input = decode(fileName);
+			} catch (IOException e) {
+				System.out.println(fileName + ": " + e);
+				continue;
+			}
+			
+			long[] latencies = replay(input);
+			
+			long sum = 0;
+			for (int i = 0; i < latencies.length; i++) {
+				sum += latencies[i];
+				if (verbose) {
+					System.out.println(fileName + " round " + i + ": " + (latencies[i]/1000) + " us");
+				}
+			}
+			totalRounds += latencies.length;
+			totalNanos += sum;
+			
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			System.out.println(fileName + ": " + latencies.length + " rounds, "
+					+ "mean " + (sum/Math.max(1, latencies.length)/1000) + " us, "
+					+ "p50 " + (percentile(sorted, 50)/1000) + " us, "
+					+ "p99 " + (percentile(sorted, 99)/1000) + " us, "
+					+ "max " + (percentile(sorted, 100)/1000) + " us, "
+					+ (latencies.length*1_000_000_000L/Math.max(1, sum)) + " rounds/s");
+		}
+		
+		System.out.println("total: " + totalRounds + " rounds in " + (totalNanos/1_000_000) + " ms, " + (totalRounds*1_000_000_000L/Math.max(1, totalNanos)) + " rounds/s");
+	}
+	
+	/**
+	 * Runs the game through the bot.
+	 * @param input The input of the game as send by the referee.
+	 * @return The time spent in each round in nanoseconds (update, decision and commands).
+	 */
+	private static long[] replay(byte[] input) {
+		long[] latencies = new long[256];
+		int rounds = 0;
+		
+		long start = System.nanoTime();
+		Game game = new Game(new ByteArrayInputStream(input), OutputStream.nullOutputStream());
+		game.load();
+		while (true) {
+			game.playRound();
+			long end = System.nanoTime();
+			
+			if (rounds == latencies.length) {
+				latencies = Arrays.copyOf(latencies, rounds*2);
+			}
+			latencies[rounds++] = end-start;
+			
+			if (!game.hasNextRound()) {
+				break;
+			}
+			start = System.nanoTime();
+			game.nextRound();
+		}
+		
+		return Arrays.copyOf(latencies, rounds);
+	}
+	
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length-1, sorted.length*percentile/100)];
+	}
+	
+	/**
+	 * Converts the binary log back into the text input of the referee.
+	 */
+	private static byte[] decode(String fileName) throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream(1 << 16);
+		PrintStream out = new PrintStream(text);
+		int completeLength = 0; // length of the text up to the last complete record
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+			while (in.available() > 0) {
+				int record = FrameRecorder.read(in);
+				if (record == FrameRecorder.GAME) {
+					out.println(FrameRecorder.read(in)); // cellCount
+					int linkCount = FrameRecorder.read(in);
+					out.println(linkCount);
+					for (int i = 0; i < linkCount; i++) {
+						out.println(FrameRecorder.read(in) + " " + FrameRecorder.read(in) + " " + FrameRecorder.read(in));
+					}
+				} else if (record == FrameRecorder.FRAME) {
+					int entityCount = FrameRecorder.read(in);
+					out.println(entityCount);
+					for (int i = 0; i < entityCount; i++) {
+						out.print(FrameRecorder.read(in));
+						out.print(' ');
+						out.print(ENTITY_TYPES[FrameRecorder.read(in)]);
+						for (int j = 0; j < 5; j++) {
+							out.print(' ');
+							out.print(FrameRecorder.read(in));
+						}
+						out.println();
+					}
+				} else {
+					throw new IOException("Unknown record " + record);
+				}
+				out.flush();
+				completeLength = text.size();
+			}
+		} catch (EOFException e) {
+			// incomplete last frame of an aborted game: replay the complete frames
+		}
+		
+		return Arrays.copyOf(text.toByteArray(), completeLength);
+	}
+	
+}
+
+
+
+/**
+ * Plays many games in one JVM for local self-play: each connection to the Unix domain socket is a game.
+ * The referee writes the input of the game to the connection and reads the commands from it, exactly as over stdin and stdout.
+ * Each game runs on its own thread, blocking on the reads of its connection while the referee plays the other bot.
+ */
+class Server {
+	
+	private static int sessions = 0;
+	
+	/**
+	 * Accepts games on the socket until the process is killed.
+	 * @param socketPath The path of the socket, replaced if it already exists.
+	 */
+	public static void run(String socketPath) {
+		Log.level = Log.OFF; // the log is written by one game at a time only
+		
+		Path path = Path.of(socketPath);
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			Files.deleteIfExists(path);
+			server.bind(UnixDomainSocketAddress.of(path));
+			System.err.println("serving games on " + path);
+			
+			while (true) {
+				SocketChannel channel = server.accept();
+				int session = ++sessions;
+				Thread thread = new Thread(() -> play(channel, session), "game-" + session);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (IOException e) {
+			System.err.println(socketPath + ": " + e);
+		}
+	}
+	
+	/**
+	 * Plays a game until the referee closes the connection.
+	 */
+	private static void play(SocketChannel channel, int session) {
+		try (channel) {
+			Game game = new Game(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+			game.load();
+			while (true) {
+				game.playRound();
+				if (!game.hasNextRound()) {
+					break;
+				}
+				game.nextRound();
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println("game " + session + ": " + e);
+		}
+	}
+	
+}
 
-    /**
-     * Adds an incoming unit troop.
-     * @param owner The player who owns the units of the troop (1 for friendly, -1 for hostile)
-     * @param units The amount of units in the troops.
-     * @param distance The distance in rounds until the troop arrives to this cell.
-     */
-    public void addIncomingUnits(int owner, int units, int distance) {
-        incomingUnits[distance] += owner*units;
-        if (owner == 1) {
-            incomingTotalFriendlyUnits += units;
-            incomingFriendlyUnits[distance] += units;
-        } else {
-        	incomingTotalEnemyUnits += units;
-            incomingEnemyUnits[distance] += units;
-        }
-    }
-    
-    public void addIncomingBomb(Bomb bomb) {
-    	if (bomb.owner == 1) {
-        	bombImpacts.add(new PredictedBombImpact(bomb, bomb.impact));
-    	} else {
-    	    if (bomb.owner == 0 && production <= 1) {
-    	        return; // probability low
-    	    }
-            int impact = GameState.round + GameState.getDistanceBetweenCells(bomb.from, this.id);
-    		bombImpacts.add(new PredictedBombImpact(bomb, impact));
-    	}
-    }
-    
-    public void removeIncomingBomb(Bomb bomb) {
-    	for (PredictedBombImpact bombImpact : bombImpacts) {
-    		if (bombImpact.bomb.id == bomb.id) {
-    			bombImpacts.remove(bombImpact);
-    			return;
-    		}
-    	}
-    }
-    
 
-    
-    
-    
-    
-    public boolean isBombImpactExpected() {
-    	return (bombImpacts.size() > 0);
-    }
-    
-    public boolean isBombImpactExpectedNextRound() {
-    	return isBombImpactExpectedIn(1);
-    }
-    
-    public boolean isBombImpactExpectedIn(int rounds) {
-    	for (PredictedBombImpact bombImpact : bombImpacts) {
-    		if (bombImpact.predictedImpact == GameState.round+rounds) {
-    			return true;
-    		}
-    	}
-    	return false;
-    }
-    
-    public boolean isBombImpactExpectedInLessThan(int rounds) {
-    	for (PredictedBombImpact bombImpact : bombImpacts) {
-    		if (bombImpact.predictedImpact < GameState.round+rounds) {
-    			return true;
-    		}
-    	}
-    	return false;
-    }
-    
-    public boolean isBombImpactExpectedInMoreThan(int rounds) {
-    	for (PredictedBombImpact bombImpact : bombImpacts) {
-    		if (bombImpact.predictedImpact > GameState.round+rounds) {
-    			return true;
-    		}
-    	}
-    	return false;
-    }
-    
-    public boolean isBombGoingToOverlapWithOtherBomb(Cell cell) {
-        
-        if (bombImpacts.size() == 0) {
-            return false;
-        }
-        
-        int distance = GameState.getDistanceBetweenCells(cell, this);
-        int impact = GameState.round + distance + 1;
-        
-        for (PredictedBombImpact bombImpact : bombImpacts) {
-            if ((bombImpact.predictedImpact-5) <= impact && impact <= (bombImpact.predictedImpact+5)) {
-                return true;
-            }
-        }
-        
-        return false;
-    }
-    
-    public boolean isTroopGoingToArriveOnBombImpact(Cell cell) {
-        
-        if (bombImpacts.size() == 0) {
-            return false;
-        }
-        
-        int distance = GameState.getDistanceBetweenCells(cell, this);
-        int arrival = GameState.round + distance + 1;
-        
-        for (PredictedBombImpact bombImpact : bombImpacts) {
-            if (arrival == bombImpact.predictedImpact) {
-                CommandManager.log("Prevented " + cell.id + " to " + this.id + " arrival in round " + arrival);
-                return true;
-            }
-        }
-        
-        return false;
-    }
-    
-    /**
-     * 
-     * @return Returns true if this cell got hit by a bomb and its production is disabled, false otherwise.
-     */
-    public boolean isHitByBomb() {
-    	return (productionDisabled != 0);
-    }
-    
-    /**
-     * @param distance The distance to this cell.
-     * @return Returns true if this cell is about to be conquered by own units.
-     */
-    public boolean isAboutToBeConquered(int distance) {
-    	
-    	if (this.owner == 1) {
-    		return true;
-    	}
-    	
-    	int units = this.units;
-    	for (int i = 1; i < incomingUnits.length; i++) {
-    		int producedUnits;
-    		if (owner == 0) {
-    			producedUnits = 0;
-    		} else {
-    			producedUnits = (productionDisabled > 0 ? 0 : this.production);
-    		}
-    		units += incomingEnemyUnits[i] - incomingFriendlyUnits[i] + producedUnits;
-    		if (units < 0) {
-    			return true;
-    		}
-    	}
-    	
-    	return false;
-    }
-    
-    
-    
-    public Cell findNearbySaveFriendlyCellToSendUnitsTo() { // TODO remove?
-    	for (Neighbor neighbor : neighbors) {
-    		if (neighbor.getCell().owner == 1) { // TODO check if this cell is about to fall into enemy hands
-    			return neighbor.getCell();
-    		}
-    	}
-		return null;
+
+/**
+ * Plays games between two bots in this JVM for local testing: generates the map, sends each bot its frame and applies the commands of both bots with the rules of the game.
+ * The frames are passed to the game states as tokens and the commands are read from the CommandWriters, so no text is written or parsed between the referee and the bots.
+ */
+class Referee {
+	
+	static final int MAX_ROUNDS = 200;
+	static final int BOMBS_PER_PLAYER = 2;
+	static final int BOMB_DISABLED_ROUNDS = 5;
+	static final int UPGRADE_COST = 10;
+	static final int MAX_PRODUCTION = 3;
+	static final int MAX_DISTANCE = 20; // the longest link of the original game (the default horizon of the GameState is based on it)
+	
+	// MAP SIZE AND THE MINIMUM SPACE BETWEEN CELLS (A TENTH OF THE ORIGINAL MAP)
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 650;
+	private static final int CELL_SPACING = 140;
+	
+	// ENTITY FIELDS: ID, OWNER, FROM, TO, UNITS (TROOPS ONLY), REMAINING ROUNDS
+	private static final int TROOP_SIZE = 6;
+	private static final int BOMB_SIZE = 5;
+	
+	private final SplittableRandom random;
+	private final int[] searchBudgets; // [player]: the search budget of the bot in ms, 0 without search or -1 for the defaults of RolloutSearch
+	private final TokenInput[] inputs = { new TokenInput(), new TokenInput() }; // [player]: the input of the first and the second bot
+	private final Game[] games = new Game[2];
+	
+	private int cellCount;
+	private int[] distances; // [a*cellCount+b]
+	private int[] owner;
+	private int[] units;
+	private int[] production;
+	private int[] disabled;
+	
+	private int[] troops = new int[TROOP_SIZE*64];
+	private int troopCount = 0;
+	private int[] bombs = new int[BOMB_SIZE*2*BOMBS_PER_PLAYER];
+	private int bombCount = 0;
+	private final int[] bombsAvailable = { BOMBS_PER_PLAYER, BOMBS_PER_PLAYER }; // [player]
+	private int nextEntityID;
+	
+	private int[] arrivingUnits; // [player*cellCount+cell]: units arriving at the cell in this round
+	private int round = 0;
+	
+	/**
+	 * @param searchBudgets The search budget of each bot in ms, 0 without search or -1 for the defaults of RolloutSearch.
+	 */
+	public Referee(long seed, int[] searchBudgets) {
+		this.random = new SplittableRandom(seed);
+		this.searchBudgets = searchBudgets;
+		createMap();
 	}
 	
-	public Cell findSaveCellToEvacuateUnitsTo() {
-	    
-	    Cell saveCell = null;
-	    
-	    // SEND TO FRIENDLY CELL
-	    for (Neighbor neighbor : neighbors) {
-	        Cell cell = neighbor.getCell();
-	        if (cell.owner == 1 && !cell.isBombImpactExpectedIn(GameState.getDistanceBetweenCells(this, cell)+1)) {
-	            saveCell = cell;
-	            break;
-	        }
-	    }
-	    
-	    // SEND TO NEUTRAL CELL
-	    if (saveCell == null) {
-	        for (Neighbor neighbor : neighbors) {
-    	        Cell cell = neighbor.getCell();
-    	        if (cell.owner == 0 && this.units > cell.units && !cell.isBombImpactExpectedIn(GameState.getDistanceBetweenCells(this, cell)+1)) {
-    	            saveCell = cell;
-    	            break;
-    	        }
-	        }
-	    }
-	    
-	    // SEND TO ENEMY CELL
-	    if (saveCell == null) {
-	        for (Neighbor neighbor : neighbors) {
-    	        Cell cell = neighbor.getCell();
-    	        if (cell.owner == -1 && this.units > cell.units && !cell.isBombImpactExpectedIn(GameState.getDistanceBetweenCells(this, cell)+1)) {
-    	            saveCell = cell;
-    	            break;
-    	        }
-	        }
-	    }
-	    
-	    // SEND TO RANDOM CELL
-	    if (saveCell == null) {
-	        int random = (int) (Math.random() * neighbors.size());
-	        saveCell = neighbors.get(random).getCell();
-	    }
-	    
-	    return saveCell;
+	/**
+	 * Plays the games of the given seeds and prints the results.
+	 * @param args The amount of games, the seed of the first game and the search budgets in ms of the first and the second bot
+	 *   (0 for the heuristic bot), all optional. Without budgets both bots use the settings of --search.
+	 */
+	public static void run(String[] args) {
+		long[] values = { 100, 0, -1, -1 }; // games, seed, budgets
+		for (int i = 0; i < args.length && i < values.length; i++) {
+			boolean valid = true;
+			try {
+				values[i] = Long.parseLong(args[i]);
+			} catch (NumberFormatException e) {
+				valid = false;
+			}
+			if (!valid || (i != 1 && (values[i] < 0 || values[i] > Integer.MAX_VALUE))) { // any seed is valid
+				System.err.println("--referee: invalid argument '" + args[i] + "' (usage: [games] [seed] [first budget] [second budget])");
+				return;
+			}
+		}
+		int gameCount = (int) values[0];
+		long firstSeed = values[1];
+		int[] searchBudgets = { (int) values[2], (int) values[3] };
+		
+		Log.level = Log.OFF;
+		
+		int[] results = new int[3]; // [winner+1]
+		long rounds = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < gameCount; i++) {
+			Referee referee = new Referee(firstSeed+i, searchBudgets);
+			results[referee.play()+1]++;
+			rounds += referee.round;
+		}
+		long nanos = Math.max(1, System.nanoTime()-start);
+		
+		System.out.println("games: " + gameCount + ", first wins " + results[2] + ", second wins " + results[0] + ", draws " + results[1]);
+		System.out.println(rounds + " rounds in " + (nanos/1_000_000) + " ms, " + (gameCount*60_000_000_000L/nanos) + " games/min");
+	}
+	
+	/**
+	 * Plays the game with a new bot for each player until the end.
+	 * @return The winner: 1 for the first bot, -1 for the second and 0 for a draw.
+	 */
+	public int play() {
+		for (int player = 0; player < 2; player++) {
+			games[player] = new Game(inputs[player], null);
+			if (searchBudgets[player] >= 0) {
+				games[player].search.enabled = (searchBudgets[player] > 0);
+				games[player].search.budgetMillis = searchBudgets[player];
+			}
+			inputs[player].clear();
+			writeMap(inputs[player]);
+			writeFrame(inputs[player], getOwner(player));
+			games[player].load();
+		}
+		
+		while (true) {
+			for (int player = 0; player < 2; player++) {
+				games[player].playRound();
+			}
+			
+			// APPLY THE RULES IN THE ORDER OF THE ORIGINAL REFEREE
+			moveEntities();
+			for (int player = 0; player < 2; player++) {
+				if (!executeCommands(player)) {
+					return -getOwner(player); // invalid command: the player loses
+				}
+			}
+			produceUnits();
+			solveBattles();
+			explodeBombs();
+			round++;
+			
+			// A PLAYER IS OUT WITHOUT UNITS AND WITHOUT PRODUCTION, OTHERWISE THE PLAYER WITH MORE UNITS WINS AFTER THE LAST ROUND
+			boolean firstOut = isEliminated(1);
+			boolean secondOut = isEliminated(-1);
+			if (firstOut || secondOut) {
+				return (firstOut == secondOut ? 0 : (firstOut ? -1 : 1));
+			}
+			if (round == MAX_ROUNDS) {
+				return Integer.signum(getTotalUnits(1)-getTotalUnits(-1));
+			}
+			
+			for (int player = 0; player < 2; player++) {
+				inputs[player].clear();
+				writeFrame(inputs[player], getOwner(player));
+				games[player].nextRound();
+			}
+		}
+	}
+	
+	/**
+	 * @return The amount of units of the player, stationed in cells or moving in troops.
+	 */
+	public int getTotalUnits(int player) {
+		int total = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			if (owner[cell] == player) {
+				total += units[cell];
+			}
+		}
+		for (int i = 0; i < troopCount*TROOP_SIZE; i += TROOP_SIZE) {
+			if (troops[i+1] == player) {
+				total += troops[i+4];
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * @return Returns true if the player has no units left, neither in cells nor in troops, and no cell producing new ones.
+	 */
+	private boolean isEliminated(int player) {
+		if (getTotalUnits(player) > 0) {
+			return false;
+		}
+		for (int cell = 0; cell < cellCount; cell++) {
+			if (owner[cell] == player && production[cell] > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int getOwner(int player) {
+		return (player == 0 ? 1 : -1);
+	}
+	
+	/**
+	 * Creates a point symmetric map around the neutral center cell. Each other cell has a mirrored twin with the same production and units.
+	 * The first two twins are the starting cells of the players.
+	 */
+	private void createMap() {
+		cellCount = 7 + 2*random.nextInt(5);
+		int[] x = new int[cellCount];
+		int[] y = new int[cellCount];
+		x[0] = WIDTH/2;
+		y[0] = HEIGHT/2;
+		int placed = 1;
+		while (placed < cellCount) {
+			int cx = random.nextInt(WIDTH+1);
+			int cy = random.nextInt(HEIGHT+1);
+			boolean free = (Math.hypot(cx-x[0], cy-y[0]) > CELL_SPACING);
+			for (int i = 0; i < placed && free; i++) {
+				free = (Math.hypot(cx-x[i], cy-y[i]) > CELL_SPACING && Math.hypot(WIDTH-cx-x[i], HEIGHT-cy-y[i]) > CELL_SPACING);
+			}
+			if (free) {
+				x[placed] = cx;
+				y[placed] = cy;
+				x[placed+1] = WIDTH-cx;
+				y[placed+1] = HEIGHT-cy;
+				placed += 2;
+			}
+		}
+		
+		owner = new int[cellCount];
+		units = new int[cellCount];
+		production = new int[cellCount];
+		disabled = new int[cellCount];
+		for (int cell = 1; cell < cellCount; cell += 2) {
+			production[cell] = production[cell+1] = random.nextInt(MAX_PRODUCTION+1);
+			units[cell] = units[cell+1] = random.nextInt(6 + production[cell]*3);
+		}
+		owner[1] = 1;
+		owner[2] = -1;
+		units[1] = units[2] = 15 + random.nextInt(16);
+		if (production[1] == 0) {
+			production[1] = production[2] = 1;
+		}
+		
+		distances = new int[cellCount*cellCount];
+		for (int a = 0; a < cellCount; a++) {
+			for (int b = 0; b < cellCount; b++) {
+				if (a != b) {
+					int distance = (int) Math.round((Math.hypot(x[a]-x[b], y[a]-y[b])-80)/80);
+					distances[a*cellCount+b] = Math.max(1, Math.min(MAX_DISTANCE, distance));
+				}
+			}
+		}
+		
+		arrivingUnits = new int[2*cellCount];
+		nextEntityID = cellCount;
+	}
+	
+	/**
+	 * Writes the cell count and the links between all cells as the input at the start of the game.
+	 */
+	private void writeMap(TokenInput input) {
+		input.add(cellCount);
+		input.add(cellCount*(cellCount-1)/2);
+		for (int a = 0; a < cellCount; a++) {
+			for (int b = a+1; b < cellCount; b++) {
+				input.add(a);
+				input.add(b);
+				input.add(distances[a*cellCount+b]);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the entities of the current round as seen by the player: the player is always the owner 1. The targets of the enemy bombs are hidden.
+	 */
+	private void writeFrame(TokenInput input, int player) {
+		input.add(cellCount + troopCount + bombCount);
+		for (int cell = 0; cell < cellCount; cell++) {
+			input.add(cell);
+			input.add(InputReader.FACTORY);
+			input.add(owner[cell]*player);
+			input.add(units[cell]);
+			input.add(production[cell]);
+			input.add(disabled[cell]);
+			input.add(0);
+		}
+		for (int i = 0; i < troopCount*TROOP_SIZE; i += TROOP_SIZE) {
+			input.add(troops[i]);
+			input.add(InputReader.TROOP);
+			input.add(troops[i+1]*player);
+			input.add(troops[i+2]);
+			input.add(troops[i+3]);
+			input.add(troops[i+4]);
+			input.add(troops[i+5]);
+		}
+		for (int i = 0; i < bombCount*BOMB_SIZE; i += BOMB_SIZE) {
+			boolean own = (bombs[i+1] == player);
+			input.add(bombs[i]);
+			input.add(InputReader.BOMB);
+			input.add(own ? 1 : -1);
+			input.add(bombs[i+2]);
+			input.add(own ? bombs[i+3] : -1);
+			input.add(own ? bombs[i+4] : -1);
+			input.add(0);
+		}
+	}
+	
+	private void moveEntities() {
+		for (int i = 0; i < troopCount*TROOP_SIZE; i += TROOP_SIZE) {
+			troops[i+5]--;
+		}
+		for (int i = 0; i < bombCount*BOMB_SIZE; i += BOMB_SIZE) {
+			bombs[i+4]--;
+		}
+	}
+	
+	/**
+	 * Applies the commands the bot sent this round.
+	 * @return Returns false if a command is invalid.
+	 */
+	private boolean executeCommands(int player) {
+		int side = getOwner(player);
+		CommandWriter writer = games[player].commands.writer;
+		for (int i = 0; i < writer.getSentCount(); i++) {
+			int type = writer.getType(i);
+			int from = writer.getFrom(i);
+			int to = writer.getTo(i);
+			if (from < 0 || from >= cellCount || owner[from] != side) {
+				return false;
+			}
+			if (type != CommandWriter.INC && (to < 0 || to >= cellCount || to == from)) {
+				return false;
+			}
+			
+			if (type == CommandWriter.MOVE) {
+				int moved = Math.min(writer.getUnits(i), units[from]);
+				if (moved > 0) {
+					units[from] -= moved;
+					addTroop(side, from, to, moved);
+				}
+			} else if (type == CommandWriter.BOMB) {
+				if (bombsAvailable[player] > 0) {
+					bombsAvailable[player]--;
+					addBomb(side, from, to);
+				}
+			} else if (type == CommandWriter.INC) {
+				if (units[from] >= UPGRADE_COST && production[from] < MAX_PRODUCTION) {
+					units[from] -= UPGRADE_COST;
+					production[from]++;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private void addTroop(int side, int from, int to, int amount) {
+		if ((troopCount+1)*TROOP_SIZE > troops.length) {
+			troops = Arrays.copyOf(troops, troops.length*2);
+		}
+		int i = troopCount*TROOP_SIZE;
+		troops[i] = nextEntityID++;
+		troops[i+1] = side;
+		troops[i+2] = from;
+		troops[i+3] = to;
+		troops[i+4] = amount;
+		troops[i+5] = distances[from*cellCount+to];
+		troopCount++;
+	}
+	
+	private void addBomb(int side, int from, int to) {
+		int i = bombCount*BOMB_SIZE;
+		bombs[i] = nextEntityID++;
+		bombs[i+1] = side;
+		bombs[i+2] = from;
+		bombs[i+3] = to;
+		bombs[i+4] = distances[from*cellCount+to];
+		bombCount++;
+	}
+	
+	private void produceUnits() {
+		for (int cell = 0; cell < cellCount; cell++) {
+			if (disabled[cell] > 0) {
+				disabled[cell]--;
+			} else if (owner[cell] != 0) {
+				units[cell] += production[cell];
+			}
+		}
 	}
-    
 	
+	/**
+	 * Lands the troops arriving this round. The troops of both players fight each other first, the remaining units fight the units in the cell.
+	 */
+	private void solveBattles() {
+		Arrays.fill(arrivingUnits, 0);
+		int remaining = 0;
+		for (int i = 0; i < troopCount*TROOP_SIZE; i += TROOP_SIZE) {
+			if (troops[i+5] <= 0) {
+				int player = (troops[i+1] == 1 ? 0 : 1);
+				arrivingUnits[player*cellCount + troops[i+3]] += troops[i+4];
+			} else {
+				System.arraycopy(troops, i, troops, remaining*TROOP_SIZE, TROOP_SIZE);
+				remaining++;
+			}
+		}
+		troopCount = remaining;
+		
+		for (int cell = 0; cell < cellCount; cell++) {
+			int first = arrivingUnits[cell];
+			int second = arrivingUnits[cellCount+cell];
+			int fought = Math.min(first, second);
+			landUnits(cell, 1, first-fought);
+			landUnits(cell, -1, second-fought);
+		}
+	}
 	
-    public int getDistanceToClosestCellWithOwner(int owner) {
-    	for (Neighbor neighbor : neighbors) {
-    		if (neighbor.getCell().owner == owner) {
-    			return neighbor.distance;
-    		}
-    	}
-    	return 21;
-    }
-    
-    public Cell getClosestCellWithOwner(int owner) {
-    	for (Neighbor neighbor : neighbors) {
-    		if (neighbor.getCell().owner == owner) {
-    			return neighbor.getCell();
-    		}
-    	}
-    	return null;
-    }
-    
-    
-    
-    public void determineThreat() {
-    	if (incomingTotalEnemyUnits > 0) { // if enemy troops are traveling to this cell
-    		
-    		int unitsWithSelfDefenseOnly = units;
-    		int unitsWithFriendlyUnitsHelp = units;
-
-    		boolean canDefendEachRoundWithBaseProductionAlone = true; // can defend by sending away remaining units. no threat
-    		boolean canDefendWithProductionBySavingUnits = true; // can defend by the units produced at this cell when stopped sending them away
-    		boolean canDefendWithProductionAndHelp = true; // can defend by the units produced and the current friendly troops coming in
-    		
-    		// THERE IS ALWAYS PRODUCED 'production' UNITS IN THE CELL
-        	for (int i = 1; i < incomingUnits.length; i++) {
-        		
-        		int producedUnits = ((productionDisabled-(i-1)) > 0 ? 0 : production);
-        		if (canDefendEachRoundWithBaseProductionAlone && incomingEnemyUnits[i] > (producedUnits+incomingFriendlyUnits[i])) {
-        			canDefendEachRoundWithBaseProductionAlone = false; // more enemy units are attacking than friendly units are being produced
-        		}
-
-        		unitsWithSelfDefenseOnly += producedUnits - incomingEnemyUnits[i];
-        		if (canDefendWithProductionBySavingUnits && unitsWithSelfDefenseOnly < 0) {
-        			canDefendWithProductionBySavingUnits = false;
-        		}
-
-        		unitsWithFriendlyUnitsHelp += producedUnits - incomingEnemyUnits[i] + incomingFriendlyUnits[i];
-        		if (canDefendWithProductionAndHelp && unitsWithFriendlyUnitsHelp < 0) {
-        			canDefendWithProductionAndHelp = false;
-        		}
-        	}
-        	
-        	// choose the most effective defense measure required to keep the cell under control
-        	if (canDefendEachRoundWithBaseProductionAlone) {
-        		threatStatus = ThreatStatus.SAFE; // cell can defend itself each round via its own produced units because each enemy troop has less or equal amount of units (action: nothing, but there might not be any units left to send away, because they got killed by the enemy troop)
-        	} else if (canDefendWithProductionBySavingUnits) {
-        		threatStatus = ThreatStatus.DEFEND_BY_SAVING_UNITS; // cell can defend itself by saving the produced units across rounds (action: save units)
-        	} else if (canDefendWithProductionAndHelp) {
-        		threatStatus = ThreatStatus.DEFEND_BY_INCOMING_UNITS; // cell can be defended by it saving the produced units across rounds plus the units send by friendly cells (action: save units)
-        	} else {
-        		threatStatus = ThreatStatus.BEING_CONQUERED; // cell will be conquered by enemy (action: try to defend it by sending units from other friendly cell)
-        	}
-    	} else {
-        	threatStatus = ThreatStatus.SAFE;
-    	}
+	private void landUnits(int cell, int side, int amount) {
+		if (amount == 0) {
+			return;
+		}
+		if (owner[cell] == side) {
+			units[cell] += amount;
+		} else if (amount > units[cell]) {
+			owner[cell] = side;
+			units[cell] = amount-units[cell];
+		} else {
+			units[cell] -= amount;
+		}
 	}
-    
-    public int[] getRequiredUnitAmount() {
-    	
-    	int[] remainingUnits = new int[incomingUnits.length];
-    	remainingUnits[0] = units;
-    	
-
-    	int[] requiredUnits = new int[incomingUnits.length];
-    	requiredUnits[0] = 0;
-    	int sendUnits = 0;
-    	
-    	for (int i = 1; i < incomingUnits.length; i++) {
-    		// calculate own remaining stationary units
-    		remainingUnits[i] = remainingUnits[i-1] + production + incomingFriendlyUnits[i] - incomingEnemyUnits[i];
-    		
-    		if (remainingUnits[i]+sendUnits >= 0) { // if friendly units are present then dont request units
-            	requiredUnits[i] = 0;
-    		} else { // if not enough friendly units are present to defend
-    			requiredUnits[i] = -(remainingUnits[i]+sendUnits);
-    			sendUnits += requiredUnits[i];
-    		}
-    	}
-    	
-    	return requiredUnits;
-    }
-    
-    public int getUnitsRequiredToSaveThisRoundToDefendSuccessfully() {
-
-    	int requiredUnits = 0;
-    	for (int i = incomingUnits.length-1; i > 0; i--) {
-    		int availableUnits = production + incomingFriendlyUnits[i] - incomingEnemyUnits[i];
-			//CommandManager.log("" + id + " " + i + " " + availableUnits + " " + requiredUnits + " " + Math.max(0, (requiredUnits-availableUnits)));
-			requiredUnits = Math.max(0, (requiredUnits-availableUnits));
-    	}
-    	
-    	return requiredUnits;
-    }
-    
-    public int[] getUnitsRequiredFromFriendlyCells() {
-    	return null; // TODO
-    }
-    
+	
+	private void explodeBombs() {
+		int remaining = 0;
+		for (int i = 0; i < bombCount*BOMB_SIZE; i += BOMB_SIZE) {
+			if (bombs[i+4] <= 0) {
+				int cell = bombs[i+3];
+				units[cell] -= Math.min(units[cell], Math.max(10, units[cell]/2));
+				disabled[cell] = BOMB_DISABLED_ROUNDS;
+			} else {
+				System.arraycopy(bombs, i, bombs, remaining*BOMB_SIZE, BOMB_SIZE);
+				remaining++;
+			}
+		}
+		bombCount = remaining;
+	}
+	
+	/**
+	 * The input of one bot: the tokens of the current frame as added by the referee.
+	 */
+	private static class TokenInput implements GameInput {
+		
+		private int[] tokens = new int[1024];
+		private int length = 0;
+		private int position = 0;
+		
+		void clear() {
+			length = 0;
+			position = 0;
+		}
+		
+		void add(int token) {
+			if (length == tokens.length) {
+				tokens = Arrays.copyOf(tokens, length*2);
+			}
+			tokens[length++] = token;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return position < length;
+		}
+		
+		@Override
+		public int nextInt() {
+			if (position == length) {
+				throw new NoSuchElementException("End of input reached");
+			}
+			return tokens[position++];
+		}
+		
+		@Override
+		public byte nextEntityType() {
+			return (byte) nextInt();
+		}
+		
+	}
+	
 }
 
 
 
-
-
 /**
- * Helps to create and organize commands for each turn.
+ * Indexes the troops in flight by their destination cell and arrival round, so the troops landing at a cell in a given round are a direct lookup.
+ * Each (cell, arrival round) pair has a list of troops in the order they were launched. The lists are kept in a ring of 'horizon' rounds
+ * like the incoming units of the CellStore, the list of the troops arrived in the previous round is released when a new round starts.
+ * Only the interception reads the single troops. The threat and defense estimates only need the summed units per round,
+ * which the CellStore timelines already hold as flat arrays.
  */
-class CommandManager {
+class TroopArrivalIndex {
+	
+	private final int horizon; // the amount of arrival rounds tracked, has to be greater than the longest distance
+	
+	// TROOPS IN FLIGHT (ONE ENTRY PER TROOP, RELEASED ENTRIES ARE REUSED)
+	public int[] owner;
+	public int[] units;
+	public int[] launched; // the round in which the troop was launched
+	private int[] nextEntry; // the next troop with the same destination and arrival or the next free entry
+	private int freeEntry; // the first released entry or -1
+	private int entryCount;
+	
+	private final int[] head; // [cellID*horizon + arrival%horizon]: the first troop of the list or -1
+	private final int[] tail; // [cellID*horizon + arrival%horizon]: the last troop of the list or -1
+	private int round;
+	
+	public TroopArrivalIndex(int cellCount, int horizon) {
+		this.horizon = horizon;
+		this.owner = new int[64];
+		this.units = new int[64];
+		this.launched = new int[64];
+		this.nextEntry = new int[64];
+		this.freeEntry = -1;
+		this.entryCount = 0;
+		this.head = new int[cellCount*horizon];
+		this.tail = new int[cellCount*horizon];
+		Arrays.fill(head, -1);
+		Arrays.fill(tail, -1);
+		this.round = 0;
+	}
 	
-	private static long time;
-    
-    static {
-    	time = System.currentTimeMillis();
-    }
-
-    /**
-     * Flushes the commands and executes them for the current round. Ends the round.
-     */
-    static void executeCommands() {
-    	StringBuilder sb = new StringBuilder();
-        
-        for (Cell cell : GameState.friendlyCells) {
-            sb.append(cell.commands.get(0).getCommandString());
-            RoundCommands roundCommands = cell.commands.remove(0);
-            roundCommands.reset();
-            cell.commands.add(roundCommands);
-        }
-        
-    	sb.append("MSG " + (System.currentTimeMillis()-time) + "ms - " + GameState.ownTotalUnits + "/" + GameState.enemyTotalUnits + " - " + GameState.ownTotalProduction + "/" + GameState.enemyTotalProduction + ";");
-        time = System.currentTimeMillis();
-        
-        System.out.println(sb.toString());
-    }
-
-
 	/**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important.
-     * @param inRounds The delay in rounds until this command is executed.
-     */
-    static void standardAttack(int from, int to, int units, int inRounds) {
-    	GameState.getCellByID(from).commands.get(inRounds).standardAttack = new SendUnits(from, to, units);
-    }
-    
-    /**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important. 
-     */
-    static void standardAttack(int from, int to, int units) {
-    	standardAttack(from, to, units, 0);
-    }
-    
-    /**
-     * Saves units to help defend the cell.
-     * @param cellID The cell ID where the units should be saved.
-     * @param units The amount of units saved.
-     */
-    static void saveUnitsForDefense(int cellID, int units) {
-    	GameState.getCellByID(cellID).commands.get(0).saveUnitsForDefense = new SaveUnits(cellID, units);
-    }
-    
-    static void sendUnitsForDefense(int from, int to, int units) {
-    	GameState.getCellByID(from).commands.get(0).defendCellBySendingUnits = new SendUnits(from, to, units);
-    }
-    
-    /**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important.
-     * @param inRounds The delay in rounds until this command is executed.
-     */
-    static void specialAttack(int from, int to, int units, int inRounds) {
-    	GameState.getCellByID(from).commands.get(inRounds).specialAttack = new SendUnits(from, to, units);
-    }
-    
-    /**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important. 
-     */
-    static void specialAttack(int from, int to, int units) {
-    	specialAttack(from, to, units, 0);
-    }
-    
-    /**
-     * Save units for a special attack.
-     * @param cellID The cell ID where units should be saved
-     * @param units The amount of units saved.
-     */
-    public static void saveUnitsForSpecialAttack(int cellID, int units) {
-    	GameState.getCellByID(cellID).commands.get(0).saveUnitsForSpecialAttack = new SaveUnits(cellID, units);
+	 * Releases the troops which arrived before the given round.
+	 */
+	public void startRound(int round) {
+		while (this.round < round) {
+			int slot = this.round % horizon;
+			for (int list = slot; list < head.length; list += horizon) {
+				if (head[list] != -1) {
+					nextEntry[tail[list]] = freeEntry;
+					freeEntry = head[list];
+					head[list] = -1;
+					tail[list] = -1;
+				}
+			}
+			this.round++;
+		}
 	}
+	
+	public void addTroop(int owner, int to, int units, int launched, int arrival) {
+		if (arrival < round || arrival >= round+horizon) {
+			return; // not tracked
+		}
+		int entry = freeEntry;
+		if (entry != -1) {
+			freeEntry = nextEntry[entry];
+		} else {
+			if (entryCount == this.owner.length) {
+				int capacity = entryCount*2;
+				this.owner = Arrays.copyOf(this.owner, capacity);
+				this.units = Arrays.copyOf(this.units, capacity);
+				this.launched = Arrays.copyOf(this.launched, capacity);
+				this.nextEntry = Arrays.copyOf(this.nextEntry, capacity);
+			}
+			entry = entryCount++;
+		}
+		this.owner[entry] = owner;
+		this.units[entry] = units;
+		this.launched[entry] = launched;
+		this.nextEntry[entry] = -1;
+		
+		int list = to*horizon + arrival % horizon;
+		if (tail[list] == -1) {
+			head[list] = entry;
+		} else {
+			nextEntry[tail[list]] = entry;
+		}
+		tail[list] = entry;
+	}
+	
+	/**
+	 * @param owner The owner of the troops (1 for friendly, -1 for hostile, 0 for both).
+	 * @return The first troop of the owner arriving at the cell in the given round or -1 if there is none.
+	 */
+	public int first(int cellID, int arrival, int owner) {
+		if (arrival < round || arrival >= round+horizon) {
+			return -1;
+		}
+		return skipTo(head[cellID*horizon + arrival % horizon], owner);
+	}
+	
+	/**
+	 * @return The next troop of the owner arriving at the same cell in the same round or -1 if there is none.
+	 */
+	public int next(int troop, int owner) {
+		return skipTo(nextEntry[troop], owner);
+	}
+	
+	private int skipTo(int troop, int owner) {
+		while (troop != -1 && owner != 0 && this.owner[troop] != owner) {
+			troop = nextEntry[troop];
+		}
+		return troop;
+	}
+	
+}
+
+/**
+ * Provides all available information about all troops and bombs launched over the course of the current game.
+ * The troops in flight are indexed by the TroopArrivalIndex, the history only remembers which troops were seen already.
+ */
+class History {
+	
+	private long[] troopIDs; // bitset of all troop ids of all launched troops
+	private long[] bombIDs; // bitset of all bomb ids of all launched bombs
+	
+	public ArrayList<Bomb> bombs; // list of launched bombs
     
-    /**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important.
-     * @param inRounds The delay in rounds until this command is executed.
-     */
-    static void neutralAttack(int from, int to, int units, int inRounds) {
-    	GameState.getCellByID(from).commands.get(inRounds).neutralAttacks.add(new SendUnits(from, to, units));
-    }
-    
-    /**
-     * Sends units from one cell to another.
-     * @param from The cell ID from where the units are send.
-     * @param to The cell ID to where the units are send
-     * @param units The amount of units send.
-     * @param priority The priority of this command. The higher, the more important. 
-     */
-    static void neutralAttack(int from, int to, int units) {
-    	neutralAttack(from, to, units, 0);
+    public History() {
+    	troopIDs = new long[16];
+    	bombIDs = new long[16];
+    	
+        bombs = new ArrayList<Bomb>(4);
     }
     
     /**
-     * Sends a bomb from one cell to another.
-     * @param from The cell ID from where the bomb is send.
-     * @param to The cell ID to where the bomb is send.
-     * @param priority The priority of this command. The higher, the more important.
-     * @param inRounds The delay in rounds until this command is executed.
-     */
-    static void sendBomb(int from, int to, int inRounds) {
-    	GameState.getCellByID(from).commands.get(inRounds).bombAttacks.add(new SendBomb(from, to));
-    }
-
-    /**
-     * Sends a bomb from one cell to another.
-     * @param from The cell ID from where the bomb is send.
-     * @param to The cell ID to where the bomb is send.
-     * @param priority The priority of this command. The higher, the more important. 
-     */
-    static void sendBomb(int from, int to) {
-    	sendBomb(from, to, 0);
-    }
-
-    /**
-     * Upgrade the production of a cell.
-     * @param cellID The id of the cell to upgrade the productivity.
-     * @param inRounds The delay in rounds until the command is executed.
+     * Marks the troop as seen.
+     * @return Returns true if the troop was not seen before.
      */
-    static void increaseProductivity(int cellID, int inRounds) {
-    	GameState.getCellByID(cellID).commands.get(inRounds).upgradeCell = new UpgradeCell(cellID);
+    public boolean addTroopID(int troopID) {
+    	troopIDs = ensureCapacity(troopIDs, troopID);
+    	return testAndSet(troopIDs, troopID);
     }
     
     /**
-     * Upgrade the production of a cell.
-     * @param cellID The id of the cell to upgrade the productivity.
+     * Marks the bomb as seen.
+     * @return Returns true if the bomb was not seen before.
      */
-    static void increaseProductivity(int cellID) {
-    	increaseProductivity(cellID, 0);
+    public boolean addBombID(int bombID) {
+    	bombIDs = ensureCapacity(bombIDs, bombID);
+    	return testAndSet(bombIDs, bombID);
     }
     
-    /**
-     * Makes sure that all units are evacuate.
-     * @param cellID The id of the cell to evacuate.
-     */
-    static void evacuateUnits(int cellID) {
-    	GameState.getCellByID(cellID).commands.get(0).evacuateUnits = true;
+    private static long[] ensureCapacity(long[] bitset, int id) {
+    	int word = id >>> 6;
+    	if (word < bitset.length) {
+    		return bitset;
+    	}
+    	return Arrays.copyOf(bitset, Math.max(bitset.length*2, word+1));
     }
     
-    /**
-     * Prints a debug message in the console.
-     * @param message The debug message.
-     */
-    static void log(String message) {
-        System.err.println(message);
+    private static boolean testAndSet(long[] bitset, int id) {
+    	int word = id >>> 6;
+    	long bit = 1L << (id & 63);
+    	if ((bitset[word] & bit) != 0) {
+    		return false;
+    	}
+    	bitset[word] |= bit;
+    	return true;
     }
+    
 }
 
-class RoundCommands {
+/**
+ * Sorts cell IDs by a key computed once per cell, instead of computing scores on each comparison.
+ * Keys within a small range are sorted by counting sort, others by merge sort. Both keep the order of cells with equal keys.
+ * The arrays are reused, so ranking does not allocate once their capacity is reached.
+ */
+class Ranking {
 	
-	int cellID;
+	private static final int MAX_COUNTING_RANGE = 256;
 	
-	SendUnits standardAttack;
-	List<SendUnits> neutralAttacks;
-	UpgradeCell upgradeCell;
-	SendUnits defendCellBySendingUnits;
-	SaveUnits saveUnitsForDefense;
-	SendUnits specialAttack;
-	SaveUnits saveUnitsForSpecialAttack;
-	ArrayList<SendBomb> bombAttacks;
+	private int[] ids;
+	private long[] keys;
+	private int size;
 	
-	boolean evacuateUnits;
+	private int[] bufferIds;
+	private long[] bufferKeys;
+	private final int[] counts;
 	
-	public RoundCommands(int cellID) {
-		this.cellID = cellID;
-		reset();
+	public Ranking() {
+		this.ids = new int[16];
+		this.keys = new long[16];
+		this.size = 0;
+		this.bufferIds = new int[16];
+		this.bufferKeys = new long[16];
+		this.counts = new int[MAX_COUNTING_RANGE+1];
 	}
 	
-	public void reset() {
-		standardAttack = null;
-		neutralAttacks = new ArrayList<SendUnits>();
-		upgradeCell = null;
-		defendCellBySendingUnits = null;
-		saveUnitsForDefense = null;
-		specialAttack = null;
-		saveUnitsForSpecialAttack = null;
-		bombAttacks = new ArrayList<SendBomb>();
-		
-		evacuateUnits = false;
+	public void clear() {
+		size = 0;
 	}
-
-	public String getCommandString() {
-		StringBuilder sb = new StringBuilder();
-		
-		int remainingUnits = GameState.getCellByID(cellID).units;
-		
-		for (SendBomb sendBomb : bombAttacks) {
-			sb.append(sendBomb.getCommandString(remainingUnits));
+	
+	public void add(int id, long key) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size*2);
+			keys = Arrays.copyOf(keys, size*2);
+			bufferIds = new int[size*2];
+			bufferKeys = new long[size*2];
 		}
-		
-		
-		if (remainingUnits <= 0) { return sb.toString(); }
-		
-		if (specialAttack != null) {
-			sb.append(specialAttack.getCommandString(remainingUnits));
-			remainingUnits -= specialAttack.units;
-			if (remainingUnits <= 0) { return sb.toString(); }
+		ids[size] = id;
+		keys[size] = key;
+		size++;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param rank The rank (0 is first).
+	 * @return The ID at the given rank.
+	 */
+	public int get(int rank) {
+		return ids[rank];
+	}
+	
+	/**
+	 * Sorts from the highest to the lowest key.
+	 */
+	public void sortDescending() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = -keys[i];
 		}
-
-		if (saveUnitsForSpecialAttack != null && !evacuateUnits) {
-			sb.append(saveUnitsForSpecialAttack.getCommandString(remainingUnits));
-			remainingUnits -= saveUnitsForSpecialAttack.units;
-			if (remainingUnits <= 0) { return sb.toString(); }
+		sortAscending();
+		for (int i = 0; i < size; i++) {
+			keys[i] = -keys[i];
 		}
-		
-		if (defendCellBySendingUnits != null) {
-			sb.append(defendCellBySendingUnits.getCommandString(remainingUnits));
-			remainingUnits -= defendCellBySendingUnits.units;
-			if (remainingUnits <= 0) { return sb.toString(); }
+	}
+	
+	/**
+	 * Sorts from the lowest to the highest key.
+	 */
+	public void sortAscending() {
+		if (size <= 1) {
+			return;
 		}
 		
-		if (saveUnitsForDefense != null && !evacuateUnits) {
-			sb.append(saveUnitsForDefense.getCommandString(remainingUnits));
-			remainingUnits -= saveUnitsForDefense.units;
-			if (remainingUnits <= 0) { return sb.toString(); }
+		long min = keys[0];
+		long max = keys[0];
+		for (int i = 1; i < size; i++) {
+			min = Math.min(min, keys[i]);
+			max = Math.max(max, keys[i]);
 		}
 		
-		if (upgradeCell != null && !evacuateUnits) {
-			if (remainingUnits < 10) {
-				return sb.toString();
-			}
-			sb.append(upgradeCell.getCommandString(remainingUnits));
-			remainingUnits -= 10;
-			if (remainingUnits <= 0) { return sb.toString(); }
+		if (max-min >= 0 && max-min < MAX_COUNTING_RANGE) {
+			countingSort(min, (int) (max-min)+1);
+		} else {
+			mergeSort();
 		}
-		
-		if (neutralAttacks.size() > 0) {
-			for (SendUnits sendUnits : neutralAttacks) {
-				sb.append(sendUnits.getCommandString(remainingUnits));
-				remainingUnits -= sendUnits.units;
-				if (remainingUnits <= 0) { return sb.toString(); }
-			}
+	}
+	
+	private void countingSort(long min, int range) {
+		Arrays.fill(counts, 0, range+1, 0);
+		for (int i = 0; i < size; i++) {
+			counts[(int) (keys[i]-min)+1]++;
 		}
-		
-		if (standardAttack != null) {
-			sb.append(standardAttack.getCommandString(remainingUnits));
-			remainingUnits -= standardAttack.units;
+		for (int i = 1; i <= range; i++) {
+			counts[i] += counts[i-1];
 		}
-		
-		if (evacuateUnits && remainingUnits > 0) {
-			if (standardAttack != null) {
-				sb.append("MOVE " + standardAttack.from + " " + standardAttack.to + " " + remainingUnits + ";");
-			} else {
-				sb.append("MOVE " + cellID + " " + GameState.getCellByID(cellID).findSaveCellToEvacuateUnitsTo().id + " " + remainingUnits + ";");
+		for (int i = 0; i < size; i++) {
+			int position = counts[(int) (keys[i]-min)]++;
+			bufferIds[position] = ids[i];
+			bufferKeys[position] = keys[i];
+		}
+		swapBuffers();
+	}
+	
+	private void mergeSort() {
+		for (int width = 1; width < size; width *= 2) {
+			for (int left = 0; left < size; left += 2*width) {
+				int middle = Math.min(left+width, size);
+				int right = Math.min(left+2*width, size);
+				int i = left;
+				int j = middle;
+				for (int k = left; k < right; k++) {
+					if (i < middle && (j >= right || keys[i] <= keys[j])) {
+						bufferIds[k] = ids[i];
+						bufferKeys[k] = keys[i++];
+					} else {
+						bufferIds[k] = ids[j];
+						bufferKeys[k] = keys[j++];
+					}
+				}
 			}
+			swapBuffers();
 		}
-		
-		return sb.toString();
 	}
+	
+	private void swapBuffers() {
+		int[] tempIds = ids;
+		ids = bufferIds;
+		bufferIds = tempIds;
+		long[] tempKeys = keys;
+		keys = bufferKeys;
+		bufferKeys = tempKeys;
+	}
+	
 }
 
 
 
 /**
- * Provides all available information about all troops and bombs launched over the course of the current game.
+ * Groups the cells by their owner. Each group is kept as set of cell IDs and as heap ordered by production (friendly and enemy cells)
+ * or by score (neutral cells). A cell changing its owner, production or score only moves within these structures.
+ * The units and production of most cells change every round, while the heaps are only read occasionally: such changes only mark the cell,
+ * the marked cells are moved within their heap when a heap is read next.
  */
-class History {
+class CellPartition {
 	
-	public HashSet<Integer> troopIDs; // list of all troop ids of all launched troops
-	public ArrayList<ArrayList<Troop>> troopsLaunched; // list of launched troops according to the round they were launched in.
+	private final Cell[] cells;
+	private final CellSet[] sets; // [owner+1]
+	private final CellHeap[] heaps; // [owner+1]
+	
+	private final boolean[] stale; // [cellID]: the key of the cell might have changed since the heaps were read
+	private final int[] staleCells;
+	private int staleCount;
+	
+	public CellPartition(Cell[] cells) {
+		this.cells = cells;
+		stale = new boolean[cells.length];
+		staleCells = new int[cells.length];
+		staleCount = 0;
+		sets = new CellSet[3];
+		heaps = new CellHeap[3];
+		for (int i = 0; i < 3; i++) {
+			sets[i] = new CellSet(cells);
+			heaps[i] = new CellHeap(cells.length);
+		}
+		for (Cell cell : cells) {
+			sets[cell.owner()+1].add(cell.id);
+			heaps[cell.owner()+1].add(cell.id, getKey(cell));
+		}
+	}
+	
+	public CellSet getCells(int owner) {
+		return sets[owner+1];
+	}
+	
+	/**
+	 * @return The heap of the owner, with the keys of all cells up to date.
+	 */
+	public CellHeap getHeap(int owner) {
+		for (int i = 0; i < staleCount; i++) {
+			int cellID = staleCells[i];
+			stale[cellID] = false;
+			Cell cell = cells[cellID];
+			CellHeap heap = heaps[cell.owner()+1];
+			long key = getKey(cell);
+			if (heap.getKey(cellID) != key) {
+				heap.update(cellID, key);
+			}
+		}
+		staleCount = 0;
+		return heaps[owner+1];
+	}
+	
+	/**
+	 * Moves the cell to the group of its new owner.
+	 * @param cell The cell with its new owner already set.
+	 * @param previousOwner The owner of the cell before.
+	 */
+	public void ownershipChanged(Cell cell, int previousOwner) {
+		sets[previousOwner+1].remove(cell.id);
+		heaps[previousOwner+1].remove(cell.id);
+		sets[cell.owner()+1].add(cell.id);
+		heaps[cell.owner()+1].add(cell.id, getKey(cell));
+	}
+	
+	/**
+	 * Marks the cell to be moved within the heap of its owner once a heap is read, as its production or score might have changed.
+	 */
+	public void keyChanged(int cellID) {
+		if (!stale[cellID]) {
+			stale[cellID] = true;
+			staleCells[staleCount++] = cellID;
+		}
+	}
+	
+	/**
+	 * @return The production of friendly and enemy cells, the score of neutral cells.
+	 */
+	private static long getKey(Cell cell) {
+		if (cell.owner() != 0) {
+			return cell.production();
+		}
+		// production per defending unit as fixed-point number (cells without units score highest if they produce)
+		if (cell.units() == 0) {
+			return (cell.production() > 0 ? Long.MAX_VALUE : 0);
+		}
+		return cell.production() * 1_000_000L / cell.units();
+	}
 	
-	public HashSet<Integer> bombIDs; // list of all bomb ids of all launched bombs
-	public ArrayList<Bomb> bombs; // list of launched bombs
-    
-    public History() {
-    	troopIDs = new HashSet<Integer>();
-        troopsLaunched = new ArrayList<ArrayList<Troop>>(201);
-        for (int i = 0; i < 201; i++) {
-            troopsLaunched.add(new ArrayList<Troop>());
-        }
-        
-        bombIDs = new HashSet<Integer>();
-        bombs = new ArrayList<Bomb>(4);
-    }
-    
 }
 
-class Neighbor implements Comparable<Neighbor> { // also used as Vertex for Dijkstra algorithm
+/**
+ * A set of cells stored as bitset of their IDs. Iterating walks the set bits in the order of the cell IDs.
+ */
+class CellSet implements Iterable<Cell> {
 	
-	int cellID;
-	int distance;
+	private final Cell[] cells; // the cells of the game, indexed by ID
+	private final long[] bits;
+	private int size;
 	
-	public Neighbor(int cellID, int distance) {
-		this.cellID = cellID;
-		this.distance = distance;
+	public CellSet(Cell[] cells) {
+		this.cells = cells;
+		this.bits = new long[(cells.length+63) >>> 6];
+		this.size = 0;
 	}
-
-	@Override
-	public int compareTo(Neighbor other) {
-		if (this.distance > other.distance)
-			return 1;
-		else if (this.distance < other.distance)
+	
+	public void add(int cellID) {
+		long bit = 1L << (cellID & 63);
+		if ((bits[cellID >>> 6] & bit) == 0) {
+			bits[cellID >>> 6] |= bit;
+			size++;
+		}
+	}
+	
+	public void remove(int cellID) {
+		long bit = 1L << (cellID & 63);
+		if ((bits[cellID >>> 6] & bit) != 0) {
+			bits[cellID >>> 6] &= ~bit;
+			size--;
+		}
+	}
+	
+	public boolean contains(int cellID) {
+		return (bits[cellID >>> 6] & (1L << (cellID & 63))) != 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @return The lowest cell ID in the set or -1 if the set is empty.
+	 */
+	public int first() {
+		return next(0);
+	}
+	
+	/**
+	 * @return The lowest cell ID in the set which is equal to or greater than the given cell ID, -1 if there is none.
+	 */
+	public int next(int cellID) {
+		int word = cellID >>> 6;
+		if (word >= bits.length) {
 			return -1;
-		else
-			return 0;
+		}
+		long remaining = bits[word] & (-1L << (cellID & 63));
+		while (remaining == 0) {
+			word++;
+			if (word == bits.length) {
+				return -1;
+			}
+			remaining = bits[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(remaining);
 	}
 	
-	public Cell getCell() {
-		return GameState.getCellByID(cellID);
+	@Override
+	public Iterator<Cell> iterator() {
+		return new Iterator<Cell>() {
+			private int next = first();
+			
+			@Override
+			public boolean hasNext() {
+				return next != -1;
+			}
+			
+			@Override
+			public Cell next() {
+				if (next == -1) {
+					throw new NoSuchElementException();
+				}
+				Cell cell = cells[next];
+				next = CellSet.this.next(next+1);
+				return cell;
+			}
+		};
 	}
 	
 }
 
-class PredictedBombImpact {
+/**
+ * A min-heap of cell IDs by key, which knows the position of each cell so the key of a cell can be changed in O(log n).
+ */
+class CellHeap {
+	
+	private final int[] heap; // cell IDs
+	private final int[] position; // [cellID]: position in the heap or -1
+	private final long[] keys; // [cellID]
+	private int size;
+	
+	public CellHeap(int cellCount) {
+		this.heap = new int[cellCount];
+		this.position = new int[cellCount];
+		this.keys = new long[cellCount];
+		Arrays.fill(position, -1);
+		this.size = 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean contains(int cellID) {
+		return position[cellID] != -1;
+	}
+	
+	/**
+	 * @return The cell ID with the lowest key or -1 if the heap is empty.
+	 */
+	public int peek() {
+		return (size == 0 ? -1 : heap[0]);
+	}
+	
+	public long getKey(int cellID) {
+		return keys[cellID];
+	}
+	
+	public void add(int cellID, long key) {
+		keys[cellID] = key;
+		heap[size] = cellID;
+		position[cellID] = size;
+		size++;
+		siftUp(size-1);
+	}
+	
+	public void remove(int cellID) {
+		int i = position[cellID];
+		if (i == -1) {
+			return;
+		}
+		size--;
+		position[cellID] = -1;
+		if (i == size) {
+			return;
+		}
+		heap[i] = heap[size];
+		position[heap[i]] = i;
+		siftDown(siftUp(i));
+	}
+	
+	public void update(int cellID, long key) {
+		keys[cellID] = key;
+		siftDown(siftUp(position[cellID]));
+	}
 	
-	Bomb bomb; // the bomb in question which forces special limitations on this cell
-	int predictedImpact; // the round in which the bomb might arrive at this cell
+	/**
+	 * @return The new position of the element.
+	 */
+	private int siftUp(int i) {
+		int cellID = heap[i];
+		while (i > 0) {
+			int parent = (i-1) >>> 1;
+			if (keys[heap[parent]] <= keys[cellID]) {
+				break;
+			}
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = cellID;
+		position[cellID] = i;
+		return i;
+	}
 	
-	public PredictedBombImpact(Bomb bomb, int predictedImpact) {
-		this.bomb = bomb;
-		this.predictedImpact = predictedImpact;
+	private void siftDown(int i) {
+		int cellID = heap[i];
+		while (true) {
+			int child = 2*i+1;
+			if (child >= size) {
+				break;
+			}
+			if (child+1 < size && keys[heap[child+1]] < keys[heap[child]]) {
+				child++;
+			}
+			if (keys[heap[child]] >= keys[cellID]) {
+				break;
+			}
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = cellID;
+		position[cellID] = i;
 	}
+	
 }
 
-class Troop {
-
-    int id;
-    int owner;
-    int from;
-    int to;
-    int units;
-    int launched; // the round in which the troop was launched
-    int arrival; // the round in which the troop will arrive at the destination cell
 
-    public Troop(int id, int owner, int from, int to, int units, int launched, int arrival) {
-        this.id = id;
-        this.owner = owner;
-        this.from = from;
-        this.to = to;
-        this.units = units;
-        this.launched = launched;
-        this.arrival = arrival; 
-    }
 
+/**
+ * Knows the closest other cell of each owner for each cell.
+ * The index is only updated for the cells that changed their owner, so each query is a single array read.
+ */
+class NearestOwnerIndex {
+	
+	private static final int NO_CELL_DISTANCE = 21; // distance reported if there is no cell with the owner
+	
+	private final GameState game;
+	private final Cell[] cells;
+	private final int[] closestCell; // [cellID*3 + owner+1]: the closest cell with the owner or -1
+	private final int[] closestDistance; // [cellID*3 + owner+1]: the distance to that cell
+	
+	public NearestOwnerIndex(GameState game) {
+		this.game = game;
+		this.cells = game.cells;
+		this.closestCell = new int[cells.length*3];
+		this.closestDistance = new int[cells.length*3];
+		for (Cell cell : cells) {
+			for (int owner = -1; owner <= 1; owner++) {
+				find(cell, owner);
+			}
+		}
+	}
+	
+	public int getCellID(int cellID, int owner) {
+		return closestCell[cellID*3 + owner+1];
+	}
+	
+	public int getDistance(int cellID, int owner) {
+		return closestDistance[cellID*3 + owner+1];
+	}
+	
+	/**
+	 * Updates the closest cells after a cell changed its owner.
+	 * @param changedCell The cell with its new owner already set.
+	 * @param previousOwner The owner of the cell before.
+	 */
+	public void ownershipChanged(Cell changedCell, int previousOwner) {
+		int newOwner = changedCell.owner();
+		for (Cell cell : cells) {
+			if (cell.id == changedCell.id) {
+				continue;
+			}
+			
+			// THE CHANGED CELL MIGHT BE THE CLOSEST CELL OF ITS NEW OWNER NOW
+			int index = cell.id*3 + newOwner+1;
+			int distance = game.getDistanceBetweenCells(cell.id, changedCell.id);
+			if (closestCell[index] == -1 || distance < closestDistance[index] || (distance == closestDistance[index] && changedCell.id < closestCell[index])) {
+				closestCell[index] = changedCell.id;
+				closestDistance[index] = distance;
+			}
+			
+			// IF IT WAS THE CLOSEST CELL OF ITS PREVIOUS OWNER, FIND THE NEXT CLOSEST CELL
+			if (closestCell[cell.id*3 + previousOwner+1] == changedCell.id) {
+				find(cell, previousOwner);
+			}
+		}
+	}
+	
+	private void find(Cell cell, int owner) {
+		int index = cell.id*3 + owner+1;
+		closestCell[index] = -1;
+		closestDistance[index] = NO_CELL_DISTANCE;
+		for (int neighborID : cell.neighbors) { // sorted from closest to farthest
+			if (game.store.owner[neighborID] == owner) {
+				closestCell[index] = neighborID;
+				closestDistance[index] = game.getDistanceBetweenCells(cell.id, neighborID);
+				return;
+			}
+		}
+	}
+	
 }
 
 class Bomb {
@@ -1732,82 +5211,6 @@ class Bomb {
 }
 
 
-abstract class Command {
-	
-	public abstract String getCommandString(int remainingUnits);
-	
-}
-
-class SendUnits extends Command {
-	
-	public int from;
-	public int to;
-	public int units;
-	
-	public SendUnits(int from, int to, int units) {
-		this.from = from;
-		this.to = to;
-		this.units = units;
-	}
-	
-	@Override
-	public String getCommandString(int remainingUnits) {
-		if (remainingUnits >= units) {
-			return "MOVE " + from + " " + to + " " + units + ";";
-		} else {
-			return "MOVE " + from + " " + to + " " + remainingUnits + ";";
-		}
-	}
-}
-
-class SaveUnits extends Command {
-	
-	public int cellID;
-	public int units;
-	
-	public SaveUnits(int cellID, int units) {
-		this.cellID = cellID;
-		this.units = units;
-	}
-	
-	@Override
-	public String getCommandString(int remainingUnits) {
-		return "";
-	}
-}
-
-class SendBomb extends Command {
-	
-	public int from;
-	public int to;
-	
-	public SendBomb(int from, int to) {
-		this.from = from;
-		this.to = to;
-	}
-	
-	@Override
-	public String getCommandString(int availableUnits) {
-		return "BOMB " + from + " " + to + ";";
-	}
-}
-
-class UpgradeCell extends Command {
-	
-	public int cellID;
-	
-	public UpgradeCell(int cellID) {
-		this.cellID = cellID;
-	}
-	
-	@Override
-	public String getCommandString(int remainingUnits) {
-		return "INC " + cellID + ";";
-	}
-}
-
-
-
 enum ThreatStatus {
 	SAFE,
 	DEFEND_BY_SAVING_UNITS,